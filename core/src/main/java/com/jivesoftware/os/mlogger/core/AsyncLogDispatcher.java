@@ -0,0 +1,337 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Moves the work of {@link LogDelivery#ASYNC} MetricLoggers off the calling thread. Callers claim a slot of a preallocated ring buffer with a
+ * compare and set, copy the pattern, argument references, throwable, timestamp, thread name and ThreadContext into it and publish it. One daemon
+ * consumer thread formats, does the LoggerSummary bookkeeping and hands log4j an event built from what the caller captured, in the order the
+ * slots were claimed. Caller location is only captured when the dispatcher was created with includeLocation, it costs a stack walk per call.
+ * A MetricLogger called on the consumer thread itself, for example from an appender or an argument's toString(), is delivered inline.
+ *
+ * What a caller does when every slot is taken is the {@link FullPolicy}. Events that are not published are counted by getDropped() and by the
+ * "logged.dropped" counter of the MetricLogger.
+ *
+ * Arguments are formatted on the consumer thread, so an argument mutated after the call may be logged in its mutated state. A shutdown hook
+ * closes the dispatcher, so what was published before the JVM exits is delivered.
+ *
+ * @author jonathan
+ */
+public final class AsyncLogDispatcher implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    /**
+     * What a caller does when the ring buffer is full.
+     */
+    public enum FullPolicy {
+
+        /**
+         * Wait for the consumer to free a slot. Nothing is lost, the caller is as slow as the consumer.
+         */
+        BLOCK,
+        /**
+         * Drop the event. The caller never waits.
+         */
+        DROP,
+        /**
+         * Once the buffer is half full accept only every sampleRate-th event and drop the rest, drop everything when full. The caller never waits
+         * and a backlog still shows a trickle of what is being logged.
+         */
+        SAMPLE
+    }
+
+    /**
+     * Set on claimed by the consumer once it has delivered everything and stops, so no publisher can claim a slot it would never deliver.
+     */
+    private static final long SEALED = Long.MIN_VALUE;
+    private static final long PARK_NANOS = 10_000;
+    private static final int SPINS_BEFORE_PARK = 100;
+
+    private static volatile AsyncLogDispatcher shared;
+
+    /**
+     * The dispatcher used by ASYNC MetricLoggers, created with the defaults and the SAMPLE policy on first use unless one was set.
+     */
+    public static AsyncLogDispatcher getShared() {
+        AsyncLogDispatcher got = shared;
+        if (got == null) {
+            synchronized (AsyncLogDispatcher.class) {
+                got = shared;
+                if (got == null) {
+                    got = new AsyncLogDispatcher(DEFAULT_CAPACITY, FullPolicy.SAMPLE, DEFAULT_SAMPLE_RATE);
+                    shared = got;
+                }
+            }
+        }
+        return got;
+    }
+
+    /**
+     * Replaces the dispatcher used by ASYNC MetricLoggers. The previous one is closed, which delivers what it still holds.
+     *
+     * @param dispatcher null to create a default one on next use.
+     */
+    public static void setShared(AsyncLogDispatcher dispatcher) {
+        AsyncLogDispatcher previous;
+        synchronized (AsyncLogDispatcher.class) {
+            previous = shared;
+            shared = dispatcher;
+        }
+        if (previous != null && previous != dispatcher) {
+            previous.close();
+        }
+    }
+
+    private static final class Event {
+
+        private MetricLogger logger;
+        private Level level;
+        private String messagePattern;
+        private Object[] args;
+        private Throwable thrown;
+        private LoggerSummary.LastNMessages lastN;
+        private boolean lastNWithThrown;
+        private long timestamp;
+        private String threadName;
+        private Map<String, String> contextMap;
+        private ThreadContext.ContextStack contextStack;
+        private StackTraceElement location;
+
+        private void clear() {
+            logger = null;
+            level = null;
+            messagePattern = null;
+            args = null;
+            thrown = null;
+            lastN = null;
+            threadName = null;
+            contextMap = null;
+            contextStack = null;
+            location = null;
+        }
+    }
+
+    private final Event[] events;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final FullPolicy policy;
+    private final int sampleRate;
+    private final boolean includeLocation;
+    private final Thread consumer;
+    private final Thread shutdownHook = new Thread(this::close, "metric-logger-async-shutdown");
+    private volatile long consumed;
+    private volatile boolean consumerParked;
+    private volatile boolean running = true;
+
+    public AsyncLogDispatcher(int capacity, FullPolicy policy, int sampleRate) {
+        this(capacity, policy, sampleRate, false);
+    }
+
+    /**
+     * @param capacity rounded up to a power of two.
+     * @param sampleRate only used by FullPolicy.SAMPLE.
+     * @param includeLocation capture the callers location for layouts that print it.
+     */
+    public AsyncLogDispatcher(int capacity, FullPolicy policy, int sampleRate, boolean includeLocation) {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 2 and 2^30.");
+        }
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be at least 1.");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.events = new Event[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            published.set(i, -1);
+        }
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.includeLocation = includeLocation;
+        this.consumer = new Thread(this::consume, "metric-logger-async");
+        consumer.setDaemon(true);
+        consumer.start();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public int getCapacity() {
+        return events.length;
+    }
+
+    public FullPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return events not published because of the FullPolicy or because the dispatcher was closed.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return events published but not yet delivered.
+     */
+    public long getBacklog() {
+        return (claimed.get() & ~SEALED) - consumed;
+    }
+
+    /**
+     * @return false if the event was dropped.
+     */
+    boolean publish(MetricLogger logger, Level level, String messagePattern, Object[] args, Throwable thrown,
+        LoggerSummary.LastNMessages lastN, boolean lastNWithThrown, long timestamp) {
+
+        if (Thread.currentThread() == consumer) {
+            // waiting for a slot only the consumer can free would deadlock.
+            logger.deliver(level, messagePattern, args, thrown, lastN, lastNWithThrown, timestamp);
+            return true;
+        }
+        long sequence;
+        while (true) {
+            if (!running) {
+                dropped.increment();
+                return false;
+            }
+            sequence = claimed.get();
+            if (sequence < 0) {
+                // sealed, the consumer is gone.
+                dropped.increment();
+                return false;
+            }
+            long used = sequence - consumed;
+            if (used >= events.length) {
+                if (policy == FullPolicy.BLOCK) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                    continue;
+                }
+                dropped.increment();
+                return false;
+            }
+            if (policy == FullPolicy.SAMPLE && used >= events.length / 2 && sampled.getAndIncrement() % sampleRate != 0) {
+                dropped.increment();
+                return false;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int index = (int) sequence & mask;
+        Event event = events[index];
+        event.logger = logger;
+        event.level = level;
+        event.messagePattern = messagePattern;
+        event.args = args;
+        event.thrown = thrown;
+        event.lastN = lastN;
+        event.lastNWithThrown = lastNWithThrown;
+        event.timestamp = timestamp;
+        event.threadName = Thread.currentThread().getName();
+        event.contextMap = ThreadContext.getImmutableContext();
+        event.contextStack = ThreadContext.getImmutableStack();
+        event.location = includeLocation ? Log4jLogEvent.calcLocation(MetricLogger.class.getName()) : null;
+        published.lazySet(index, sequence);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    private void consume() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            int index = (int) next & mask;
+            if (published.get(index) == next) {
+                Event event = events[index];
+                try {
+                    event.logger.deliverPublished(event.level, event.messagePattern, event.args, event.thrown, event.lastN, event.lastNWithThrown,
+                        event.timestamp, event.threadName, event.contextMap, event.contextStack, event.location);
+                } catch (Throwable t) {
+                    StatusLogger.getLogger().error("MetricLogger async delivery failed for [{}]", event.messagePattern, t);
+                }
+                event.clear();
+                next++;
+                consumed = next;
+                idle = 0;
+            } else if (!running && claimed.compareAndSet(next, next | SEALED)) {
+                // nothing claimed is left undelivered and every later claim fails on the seal and is counted as dropped.
+                return;
+            } else if (idle < SPINS_BEFORE_PARK) {
+                idle++;
+                Thread.yield();
+            } else {
+                consumerParked = true;
+                if (published.get(index) != next) {
+                    LockSupport.parkNanos(this, 1_000_000);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    /**
+     * Waits until everything published before this call has been delivered.
+     */
+    public void flush() {
+        long target = claimed.get() & ~SEALED;
+        while (consumed < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Stops accepting events, delivers the ones already published and stops the consumer. A call racing with close is either delivered or counted
+     * by getDropped(), never lost.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is shutting down and the hook closes this as well.
+            }
+        }
+        running = false;
+        LockSupport.unpark(consumer);
+        if (Thread.currentThread() != consumer) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -15,12 +15,11 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
-import java.util.concurrent.atomic.LongAdder;
-
 public final class AtomicCounter implements AtomicCounterMXBean {
 
     private ValueType type;
-    private final LongAdder value = new LongAdder();
+    private final StripedLong value = new StripedLong();
+    private volatile AtomicCounter forward;
 
     public AtomicCounter() {
     }
@@ -36,7 +35,7 @@ public final class AtomicCounter implements AtomicCounterMXBean {
         sb.append(type.name());
         sb.append("\",");
         sb.append("\"value\":");
-        sb.append(value.longValue());
+        sb.append(value.sum());
         sb.append("}");
         return sb.toString();
     }
@@ -51,12 +50,11 @@ public final class AtomicCounter implements AtomicCounterMXBean {
 
     @Override
     public long getValue() {
-        return value.longValue();
+        return value.sum();
     }
 
     public void setValue(long value) {
-        this.value.reset();
-        this.value.add(value);
+        this.value.set(value);
     }
 
     @Override
@@ -69,27 +67,54 @@ public final class AtomicCounter implements AtomicCounterMXBean {
     }
 
     public void inc() {
-        value.increment();
+        add(1);
     }
 
     public void inc(long amount) {
-        value.add(amount);
+        add(amount);
     }
 
     public void dec() {
-        value.decrement();
+        add(-1);
     }
 
     public void dec(long amount) {
-        value.add(-amount);
+        add(-amount);
     }
 
     public void set(long value) {
-        this.value.reset();
-        this.value.add(value);
+        this.value.set(value);
     }
 
     public long getCount() {
-        return value.longValue();
+        return value.sum();
+    }
+
+    /**
+     * Same as {@link Counter#forwardTo(Counter)}.
+     */
+    void forwardTo(AtomicCounter target) {
+        forward = target;
+        drain();
+    }
+
+    private void add(long amount) {
+        AtomicCounter target = forward;
+        if (target != null) {
+            target.inc(amount);
+            return;
+        }
+        value.add(amount);
+        if (forward != null) {
+            // forward was set after the add above, so forwardTo may have drained before it landed.
+            drain();
+        }
+    }
+
+    private void drain() {
+        long moved = value.sumThenReset();
+        if (moved != 0) {
+            forward.inc(moved);
+        }
     }
 }
@@ -1,29 +1,52 @@
 package com.jivesoftware.os.mlogger.core;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Implementation of BucketedCounterMXBean, which divides past time into buckets (a bucket = n milliseconds)
  * and keeps the number of incr() calls in each bucket. When getValue() is called it will return the sum of
  * counts in all non-expired buckets.
+ *
+ * Buckets live in a fixed ring indexed by (time / bucketSize) % ring size, each slot with its own {@link StripedLong} that is allocated up front and
+ * never replaced. The first increment that finds a slot still keyed to an older bucket claims it with a CAS on the key and records the slot's
+ * running sum as the new bucket's baseline, so a rotation allocates nothing and never wipes an increment. Neither increments nor reads ever wait on
+ * a rotation. A StripedLong only allocates its padded stripes once increments actually contend.
  */
 public final class BucketedCounter implements BucketedCounterMXBean {
 
+    private static final long EMPTY = -1;
+    private static final long CLAIMING = Long.MIN_VALUE;
+
     private ValueType type;
 
+    private final Clock clock;
     private final long bucketSize;
     private final int numberOfBuckets;
-    private final ConcurrentLinkedHashMap<Long, LongAdder> bucketedCount;
+    private final int numberOfSlots;
+    /**
+     * The bucket key of each slot, EMPTY before first use and CLAIMING while its baseline is being recorded.
+     */
+    private final AtomicLongArray keys;
+    private final AtomicLongArray baselines;
+    private final StripedLong[] counts;
 
     public BucketedCounter(ValueType type, long bucketSize, int numberOfBuckets) {
+        this(SystemClock.INSTANCE, type, bucketSize, numberOfBuckets);
+    }
+
+    public BucketedCounter(Clock clock, ValueType type, long bucketSize, int numberOfBuckets) {
+        this.clock = clock;
         this.type = type;
         this.bucketSize = bucketSize;
         this.numberOfBuckets = numberOfBuckets;
-        this.bucketedCount = new ConcurrentLinkedHashMap.Builder<Long, LongAdder>()
-            .maximumWeightedCapacity(numberOfBuckets + 1)
-            .build();
+        this.numberOfSlots = numberOfBuckets + 1;
+        this.keys = new AtomicLongArray(numberOfSlots);
+        this.baselines = new AtomicLongArray(numberOfSlots);
+        this.counts = new StripedLong[numberOfSlots];
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            keys.set(slot, EMPTY);
+            counts[slot] = new StripedLong();
+        }
     }
 
     public String toJsonString() {
@@ -49,12 +72,17 @@ public final class BucketedCounter implements BucketedCounterMXBean {
     @Override
     public long getValue(int maxNumberOfBuckets) {
         long value = 0L;
-        long currentBucketKey = (System.currentTimeMillis()) / bucketSize;
-        for (Map.Entry<Long, LongAdder> bucket : bucketedCount.entrySet()) {
-            if (currentBucketKey - bucket.getKey() >= maxNumberOfBuckets) {
+        long currentBucketKey = clock.currentTimeMillis() / bucketSize;
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            long key = keys.get(slot);
+            if (key < 0 || key > currentBucketKey || currentBucketKey - key >= maxNumberOfBuckets) {
                 continue;
             }
-            value += bucket.getValue().longValue();
+            long bucketValue = counts[slot].sum() - baselines.get(slot);
+            // keys only ever grow, so an unchanged key means the baseline and sum belong to it.
+            if (keys.get(slot) == key) {
+                value += bucketValue;
+            }
         }
 
         return value;
@@ -70,9 +98,12 @@ public final class BucketedCounter implements BucketedCounterMXBean {
         return type.name();
     }
 
+    /**
+     * Not atomic with respect to concurrent increments.
+     */
     public void reset() {
-        for (Map.Entry<Long, LongAdder> bucket : bucketedCount.entrySet()) {
-            bucket.getValue().reset();
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            baselines.set(slot, counts[slot].sum());
         }
     }
 
@@ -93,9 +124,19 @@ public final class BucketedCounter implements BucketedCounterMXBean {
     }
 
     private void incrementBucketValue(long amount) {
-        Long bucketKey = (System.currentTimeMillis()) / bucketSize;
-        LongAdder bucketValue = bucketedCount.computeIfAbsent(bucketKey, (t) -> new LongAdder());
-        bucketValue.add(amount);
+        long bucketKey = clock.currentTimeMillis() / bucketSize;
+        int slot = (int) (bucketKey % numberOfSlots);
+        long key = keys.get(slot);
+        // a key that is CLAIMING or already ahead of bucketKey is counted in that newer bucket, as is an increment that races with a claim.
+        while (key != CLAIMING && key < bucketKey) {
+            if (keys.compareAndSet(slot, key, CLAIMING)) {
+                baselines.set(slot, counts[slot].sum());
+                keys.set(slot, bucketKey);
+                break;
+            }
+            key = keys.get(slot);
+        }
+        counts[slot].add(amount);
     }
 
     public long getCount(int maxNumberOfBuckets) {
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * Where metrics get the time from. See {@link SystemClock}, {@link CoarseClock} and {@link ManualClock}.
+ *
+ * @author jonathan
+ */
+public interface Clock {
+
+    /**
+     * Wall clock millis, used for bucket keys, time windows and millisecond timers.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Monotonic nanos, used for nanosecond timers.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock whose millis are refreshed by a background ticker thread, so reading the time is a volatile read instead of a call into the OS. Millis lag
+ * the real time by at most about one tick. nanoTime() is not coarsened because nanosecond timers would be meaningless at tick resolution.
+ *
+ * @author jonathan
+ */
+public final class CoarseClock implements Clock, AutoCloseable {
+
+    public static final long DEFAULT_TICK_MILLIS = 1;
+
+    private static volatile CoarseClock shared;
+
+    private final ScheduledExecutorService ticker;
+    private volatile long millis = System.currentTimeMillis();
+
+    /**
+     * @return a process wide CoarseClock ticking every DEFAULT_TICK_MILLIS, started on first use.
+     */
+    public static CoarseClock getShared() {
+        CoarseClock got = shared;
+        if (got == null) {
+            synchronized (CoarseClock.class) {
+                got = shared;
+                if (got == null) {
+                    got = new CoarseClock(DEFAULT_TICK_MILLIS);
+                    shared = got;
+                }
+            }
+        }
+        return got;
+    }
+
+    public CoarseClock(long tickMillis) {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coarse-clock-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> millis = System.currentTimeMillis(), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return millis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stops the ticker, the clock stops advancing.
+     */
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
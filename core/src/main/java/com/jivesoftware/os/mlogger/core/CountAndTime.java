@@ -42,7 +42,8 @@ public class CountAndTime implements CallMonitor {
     }
 
     /**
-     * For those who prefer callable over dealing with try finally
+     * For those who prefer callable over dealing with try finally. The start time lives on this calls stack rather than in any per thread state, so it is
+     * safe to call from any number of short lived or virtual threads and nested calls with the same name each record their own elapse.
      *
      * @param <V>
      * @param callable
@@ -51,11 +52,13 @@ public class CountAndTime implements CallMonitor {
      */
     @Override
     public <V> V call(Callable<V> callable) throws Exception {
+        Clock clock = logger.countersAndTimers.getClock();
+        logger.inc(name);
+        long start = clock.currentTimeMillis();
         try {
-            start();
             return callable.call();
         } finally {
-            stop();
+            logger.timerHandle(name).sample(clock.currentTimeMillis() - start);
         }
     }
 }
@@ -15,10 +15,14 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
+/**
+ * Exact under concurrent updates. Contended writes are spread over cache line padded cells, see {@link StripedLong}.
+ */
 public final class Counter implements CounterMXBean {
 
     private ValueType type;
-    private long value;
+    private final StripedLong value = new StripedLong();
+    private volatile Counter forward;
 
     public Counter() {
     }
@@ -34,7 +38,7 @@ public final class Counter implements CounterMXBean {
         sb.append(type.name());
         sb.append("\",");
         sb.append("\"value\":");
-        sb.append(value);
+        sb.append(value.sum());
         sb.append("}");
         return sb.toString();
     }
@@ -49,11 +53,11 @@ public final class Counter implements CounterMXBean {
 
     @Override
     public long getValue() {
-        return value;
+        return value.sum();
     }
 
     public void setValue(long value) {
-        this.value = value;
+        this.value.set(value);
     }
 
     @Override
@@ -62,30 +66,60 @@ public final class Counter implements CounterMXBean {
     }
 
     public void reset() {
-        this.value = 0;
+        this.value.reset();
     }
 
     public void inc() {
-        value++;
+        add(1);
     }
 
     public void inc(long amount) {
-        value += amount;
+        add(amount);
     }
 
     public void dec() {
-        value--;
+        add(-1);
     }
 
     public void dec(long amount) {
-        value -= amount;
+        add(-amount);
     }
 
     public void set(long value) {
-        this.value = value;
+        this.value.set(value);
     }
 
     public long getCount() {
-        return value;
+        return value.sum();
+    }
+
+    /**
+     * Moves the count into target and makes every later increment, including ones racing with this call, end up in target too. Used when the tenant
+     * this counter belongs to is evicted, so increments through handles that are still held are not lost. Later increments go straight to target, and the
+     * count is moved with {@link StripedLong#sumThenReset()} so each increment is moved exactly once.
+     */
+    void forwardTo(Counter target) {
+        forward = target;
+        drain();
+    }
+
+    private void add(long amount) {
+        Counter target = forward;
+        if (target != null) {
+            target.inc(amount);
+            return;
+        }
+        value.add(amount);
+        if (forward != null) {
+            // forward was set after the add above, so forwardTo may have drained before it landed.
+            drain();
+        }
+    }
+
+    private void drain() {
+        long moved = value.sumThenReset();
+        if (moved != 0) {
+            forward.inc(moved);
+        }
     }
 }
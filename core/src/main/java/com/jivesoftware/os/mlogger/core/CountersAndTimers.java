@@ -15,11 +15,18 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanRegistrationException;
@@ -36,7 +43,22 @@ import org.apache.logging.log4j.Logger;
 public final class CountersAndTimers {
 
     private final static Logger LOGGER = LogManager.getLogger(CountersAndTimers.class.getName());
+    public static final String ABANDONED_TIMERS = "abandonedTimers";
+    public static final long DEFAULT_ABANDONED_TIMER_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final String OTHER_TENANT = "__other__";
+    /**
+     * Tenant specific metrics are unbounded unless capped with {@link #setMaxTenants(long)}. This is the largest capacity ConcurrentLinkedHashMap takes.
+     */
+    public static final long DEFAULT_MAX_TENANTS = Long.MAX_VALUE - Integer.MAX_VALUE;
+    public static final int HEAVY_HITTER_SLACK = 4;
+
     private final static ConcurrentHashMap<String, CountersAndTimers> LOGGERS = new ConcurrentHashMap<>();
+    private static volatile TimerMode defaultTimerMode = TimerMode.SAMPLE_WINDOW;
+    private static volatile Clock defaultClock = SystemClock.INSTANCE;
+    private static volatile MBeanMode defaultMBeanMode = MBeanMode.PER_METRIC;
+    private final static AtomicInteger TIMER_IDS = new AtomicInteger();
+    private final static ThreadLocal<TimerStack> TIMER_STACK = ThreadLocal.withInitial(TimerStack::new);
+    private final static JmxRegistrar REGISTRAR = new JmxRegistrar("metrics-jmx-registrar");
 
     public static CountersAndTimers getOrCreate(Class _class) {
         return getOrCreate(classToKey(_class));
@@ -49,6 +71,8 @@ public final class CountersAndTimers {
             CountersAndTimers had = LOGGERS.putIfAbsent(name, got);
             if (had != null) {
                 got = had;
+            } else {
+                got.created();
             }
         }
         return got;
@@ -64,6 +88,45 @@ public final class CountersAndTimers {
         }
     }
 
+    /**
+     * The TimerMode used by CountersAndTimers created after this call.
+     *
+     * @param timerMode null NOT ok.
+     */
+    public static void setDefaultTimerMode(TimerMode timerMode) {
+        defaultTimerMode = timerMode;
+    }
+
+    /**
+     * The Clock used by CountersAndTimers created after this call, for example {@link CoarseClock#getShared()}.
+     *
+     * @param clock null NOT ok.
+     */
+    public static void setDefaultClock(Clock clock) {
+        defaultClock = clock;
+    }
+
+    public static Clock getDefaultClock() {
+        return defaultClock;
+    }
+
+    /**
+     * The MBeanMode used by CountersAndTimers created after this call. Tenant specific metrics use the mode of their parent.
+     *
+     * @param mBeanMode null NOT ok.
+     */
+    public static void setDefaultMBeanMode(MBeanMode mBeanMode) {
+        defaultMBeanMode = mBeanMode;
+    }
+
+    /**
+     * MBeans are registered and unregistered in the background, see {@link JmxRegistrar}. Blocks until every metric created before this call is
+     * visible in the MBeanServer.
+     */
+    public static void flushRegistrations() throws InterruptedException {
+        REGISTRAR.flush();
+    }
+
     public static String classToKey(Class _class) {
         final String path = _class.getCanonicalName();
         if (path == null) {
@@ -74,44 +137,327 @@ public final class CountersAndTimers {
     private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, AtomicCounter> atomicCounters = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, BucketedCounter> bucketedCounters = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Long> startTimes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> timerIds = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
     private final String name;
-    private final ConcurrentHashMap<String, CountersAndTimers> tenantSpecifcMetric = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedHashMap<String, CountersAndTimers> tenantSpecifcMetric;
+    private volatile CountersAndTimers otherTenants;
+    private volatile SpaceSavingSketch heavyHitters;
+    private volatile CountersAndTimers evictedInto;
+    private final ConcurrentLinkedQueue<ObjectName> registeredNames = new ConcurrentLinkedQueue<>();
+    // append only, published by writing namedMetricsSize after the array and the element.
+    private final Object namedMetricsLock = new Object();
+    private volatile NamedMetric[] namedMetrics = new NamedMetric[8];
+    private volatile int namedMetricsSize;
+    private boolean namesReleased;
+    private volatile TimerMode timerMode;
+    private volatile long timeWindowMillis = WindowedHistogram.DEFAULT_WINDOW_MILLIS;
+    private volatile int timeWindowSlices = WindowedHistogram.DEFAULT_NUMBER_OF_SLICES;
+    private volatile Clock clock;
+    private volatile long abandonedTimerMaxAgeMillis = DEFAULT_ABANDONED_TIMER_MAX_AGE_MILLIS;
+    private final MBeanMode mBeanMode;
 
     private CountersAndTimers(String name) {
         this.name = name;
+        this.tenantSpecifcMetric = newTenantMap(DEFAULT_MAX_TENANTS);
+        this.timerMode = defaultTimerMode;
+        this.clock = defaultClock;
+        this.mBeanMode = defaultMBeanMode;
+    }
+
+    private CountersAndTimers(String name, CountersAndTimers parent) {
+        this.name = name;
+        this.tenantSpecifcMetric = newTenantMap(parent.tenantSpecifcMetric.capacity());
+        this.timerMode = parent.timerMode;
+        this.timeWindowMillis = parent.timeWindowMillis;
+        this.timeWindowSlices = parent.timeWindowSlices;
+        this.clock = parent.clock;
+        this.abandonedTimerMaxAgeMillis = parent.abandonedTimerMaxAgeMillis;
+        this.mBeanMode = parent.mBeanMode;
+    }
+
+    private void created() {
+        if (mBeanMode == MBeanMode.PER_INSTANCE) {
+            REGISTRAR.submit(() -> registerNow("CountersAndTimers", name, new CountersAndTimersMBean(this)));
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    public MBeanMode getMBeanMode() {
+        return mBeanMode;
+    }
+
+    public TimerMode getTimerMode() {
+        return timerMode;
+    }
+
+    /**
+     * Only affects timers created after this call. Tenant specific metrics created after this call inherit the mode.
+     *
+     * @param timerMode null NOT ok.
+     */
+    public void setTimerMode(TimerMode timerMode) {
+        this.timerMode = timerMode;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Times started after this call and metrics created after this call use clock. Tenant specific metrics created after this call inherit it.
+     *
+     * @param clock null NOT ok.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sizes the window of {@link TimerMode#TIME_WINDOW} timers created after this call. Tenant specific metrics created after this call inherit it.
+     *
+     * @param windowMillis how much recent history percentiles describe.
+     * @param numberOfSlices the granularity with which old samples expire.
+     */
+    public void setTimeWindow(long windowMillis, int numberOfSlices) {
+        this.timeWindowMillis = windowMillis;
+        this.timeWindowSlices = numberOfSlices;
+    }
+
+    public long getAbandonedTimerMaxAgeMillis() {
+        return abandonedTimerMaxAgeMillis;
+    }
+
+    /**
+     * A started timer that is older than this is considered abandoned, typically because the code between start and stop threw. An abandoned start
+     * is replaced by the next start of the same timer and is otherwise dropped by the periodic sweep. Either way it is counted in the
+     * {@link #ABANDONED_TIMERS} counter. Tenant specific metrics created after this call inherit it.
+     *
+     * @param abandonedTimerMaxAgeMillis 0 or less never abandons a started timer.
+     */
+    public void setAbandonedTimerMaxAgeMillis(long abandonedTimerMaxAgeMillis) {
+        this.abandonedTimerMaxAgeMillis = abandonedTimerMaxAgeMillis;
+    }
+
+    private ConcurrentLinkedHashMap<String, CountersAndTimers> newTenantMap(long maxTenants) {
+        return new ConcurrentLinkedHashMap.Builder<String, CountersAndTimers>()
+            .maximumWeightedCapacity(maxTenants)
+            .listener((tenant, evicted) -> evicted(evicted))
+            .build();
+    }
+
+    public long getMaxTenants() {
+        return tenantSpecifcMetric.capacity();
+    }
+
+    /**
+     * Caps how many tenant specific metrics are kept, by default there is no cap. Past the cap the least recently used tenant is evicted, its MBeans
+     * are unregistered on the registrar thread and its COUNT counters are forwarded into the {@link #OTHER_TENANT} tenant, totals so far and every
+     * later increment through a counter handle that is still held. Timers, bucketed counters and non COUNT values of an evicted tenant are dropped.
+     * Lowering the cap evicts immediately. Tenant specific metrics created after this call inherit it.
+     *
+     * @param maxTenants at least 1, DEFAULT_MAX_TENANTS for no cap.
+     */
+    public void setMaxTenants(long maxTenants) {
+        tenantSpecifcMetric.setCapacity(maxTenants);
+    }
+
+    /**
+     * Switches to tracking only the heaviest tenants. Every getTenantMetric call is recorded in a {@link SpaceSavingSketch} that monitors
+     * k * HEAVY_HITTER_SLACK tenants, buffered per thread so the sketchs lock is only taken once per batch. Only tenants that were in the top k when
+     * the sketch last refreshed get their own metrics, everything else, including every tenant seen before the first batch, is recorded in the
+     * {@link #OTHER_TENANT} tenant. A tenant that stops being monitored is evicted the same way {@link #setMaxTenants(long)} evicts.
+     * streamAllTenantMetrics then reports the top k with their count estimates and error bounds.
+     *
+     * Existing tenant specific metrics are evicted when the mode changes.
+     *
+     * @param k 0 or less goes back to tracking every tenant up to the max tenants cap.
+     */
+    public synchronized void setHeavyHitterTenants(int k) {
+        SpaceSavingSketch had = heavyHitters;
+        if (had != null) {
+            heavyHitters = null;
+            had.clear();
+        }
+        for (String tenant : tenantSpecifcMetric.keySet()) {
+            dropTenant(tenant);
+        }
+        if (k > 0) {
+            SpaceSavingSketch sketch = new SpaceSavingSketch(k, k * HEAVY_HITTER_SLACK, this::dropTenant);
+            tenantSpecifcMetric.setCapacity(Math.max(tenantSpecifcMetric.capacity(), sketch.getCapacity()));
+            heavyHitters = sketch;
+        }
+    }
+
+    /**
+     * @return 0 unless tracking heavy hitter tenants.
+     */
+    public int getHeavyHitterTenants() {
+        SpaceSavingSketch sketch = heavyHitters;
+        return sketch == null ? 0 : sketch.getK();
+    }
+
+    private void dropTenant(String tenant) {
+        CountersAndTimers dropped = tenantSpecifcMetric.remove(tenant);
+        if (dropped != null) {
+            evicted(dropped);
+        }
+    }
+
+    private void evicted(CountersAndTimers evicted) {
+        CountersAndTimers other = getOtherTenants();
+        evicted.evictedInto = other;
+        for (Entry<String, Counter> entry : evicted.counters.entrySet()) {
+            Counter counter = entry.getValue();
+            if (counter.getValueType() == ValueType.COUNT) {
+                counter.forwardTo(other.counter(ValueType.COUNT, entry.getKey()));
+            }
+        }
+        for (Entry<String, AtomicCounter> entry : evicted.atomicCounters.entrySet()) {
+            AtomicCounter counter = entry.getValue();
+            if (counter.getValueType() == ValueType.COUNT) {
+                counter.forwardTo(other.atomicCounter(ValueType.COUNT, entry.getKey()));
+            }
+        }
+        REGISTRAR.submit(evicted::unregisterAll);
+    }
+
+    /**
+     * @return true once this tenant specific CountersAndTimers has been evicted from its parent.
+     */
+    public boolean isEvicted() {
+        return evictedInto != null;
+    }
+
+    private CountersAndTimers getOtherTenants() {
+        CountersAndTimers got = otherTenants;
+        if (got == null) {
+            synchronized (tenantSpecifcMetric) {
+                got = otherTenants;
+                if (got == null) {
+                    got = new CountersAndTimers(name + ">tenant>" + OTHER_TENANT, this);
+                    otherTenants = got;
+                    got.created();
+                }
+            }
+        }
+        return got;
+    }
+
+    /**
+     * Runs on the registrar thread, after every registration submitted before the eviction. Also gives back the metric name ids, see
+     * {@link MetricNames}, metrics created on this CountersAndTimers afterwards are no longer exported.
+     */
+    private void unregisterAll() {
+        synchronized (namedMetricsLock) {
+            if (!namesReleased) {
+                namesReleased = true;
+                for (int i = 0; i < namedMetricsSize; i++) {
+                    MetricNames.release(namedMetrics[i].nameId);
+                }
+            }
+        }
+        for (CountersAndTimers tenant : tenantSpecifcMetric.values()) {
+            tenant.unregisterAll();
+        }
+        CountersAndTimers other = otherTenants;
+        if (other != null) {
+            other.unregisterAll();
+        }
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName mbeanName = registeredNames.poll(); mbeanName != null; mbeanName = registeredNames.poll()) {
+            try {
+                mbs.unregisterMBean(mbeanName);
+            } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+                LOGGER.debug("unable to unregister bean: " + mbeanName + " cause: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the tenants currently tracked, followed by {@link #OTHER_TENANT} once any tenant has been evicted. When tracking heavy hitter tenants
+     * only the current top k are returned, the same tenants streamAllTenantMetrics reports.
+     */
     public Collection<CountersAndTimers> getAllTenantSpecificMetrics() {
-        return tenantSpecifcMetric.values();
+        CountersAndTimers other = otherTenants;
+        SpaceSavingSketch sketch = heavyHitters;
+        if (sketch != null) {
+            List<CountersAndTimers> all = new ArrayList<>();
+            for (SpaceSavingSketch.Estimate estimate : sketch.topK()) {
+                CountersAndTimers got = tenantSpecifcMetric.getQuietly(estimate.getItem());
+                if (got != null) {
+                    all.add(got);
+                }
+            }
+            if (other != null) {
+                all.add(other);
+            }
+            return all;
+        }
+        if (other == null) {
+            return tenantSpecifcMetric.values();
+        }
+        List<CountersAndTimers> all = new ArrayList<>(tenantSpecifcMetric.values());
+        all.add(other);
+        return all;
     }
 
     public boolean streamTenantMetrics(String tenant, TenantMetricStream stream) {
-        CountersAndTimers got = tenantSpecifcMetric.get(tenant);
+        CountersAndTimers got = OTHER_TENANT.equals(tenant) ? otherTenants : tenantSpecifcMetric.get(tenant);
         return stream.stream(tenant, got);
     }
 
     public boolean streamAllTenantMetrics(TenantMetricStream stream) {
+        SpaceSavingSketch sketch = heavyHitters;
+        if (sketch != null) {
+            for (SpaceSavingSketch.Estimate estimate : sketch.topK()) {
+                CountersAndTimers got = tenantSpecifcMetric.getQuietly(estimate.getItem());
+                if (got != null && !stream.stream(estimate.getItem(), got, estimate.getCount(), estimate.getError())) {
+                    return false;
+                }
+            }
+            CountersAndTimers other = otherTenants;
+            return other == null || stream.stream(OTHER_TENANT, other);
+        }
         for (Entry<String, CountersAndTimers> entrySet : tenantSpecifcMetric.entrySet()) {
             if (!stream.stream(entrySet.getKey(), entrySet.getValue())) {
                 return false;
             }
         }
-        return true;
+        CountersAndTimers other = otherTenants;
+        return other == null || stream.stream(OTHER_TENANT, other);
     }
 
     public CountersAndTimers getTenantMetric(String tenant) {
+        if (OTHER_TENANT.equals(tenant)) {
+            return getOtherTenants();
+        }
+        SpaceSavingSketch sketch = heavyHitters;
+        if (sketch != null) {
+            sketch.record(tenant);
+            CountersAndTimers got = tenantSpecifcMetric.getQuietly(tenant);
+            if (got != null) {
+                return got;
+            }
+            if (!sketch.isHeavyHitter(tenant)) {
+                return getOtherTenants();
+            }
+        }
         CountersAndTimers got = tenantSpecifcMetric.get(tenant);
         if (got == null) {
-            got = new CountersAndTimers(name + ">tenant>" + tenant);
+            got = new CountersAndTimers(name + ">tenant>" + tenant, this);
             CountersAndTimers had = tenantSpecifcMetric.putIfAbsent(tenant, got);
             if (had != null) {
                 got = had;
+            } else {
+                got.created();
+                if (sketch != null && !sketch.isHeavyHitter(tenant)) {
+                    // the sketch stopped monitoring tenant while it was being created, and may already have told dropTenant.
+                    dropTenant(tenant);
+                }
             }
         }
         return got;
@@ -137,12 +483,21 @@ public final class CountersAndTimers {
         Counter counter = counters.get(key);
 
         if (counter == null) {
+            CountersAndTimers into = evictedInto;
+            if (into != null && type == ValueType.COUNT) {
+                return into.counter(type, key);
+            }
             counter = new Counter(type);
             Counter originalCounter = counters.putIfAbsent(key, counter);
             if (originalCounter != null) {
                 return originalCounter;
             }
             register(name + ">" + key, counter);
+            into = evictedInto;
+            if (into != null && type == ValueType.COUNT) {
+                // created while this tenant was being evicted.
+                counter.forwardTo(into.counter(type, key));
+            }
         }
         return counter;
     }
@@ -151,12 +506,20 @@ public final class CountersAndTimers {
         AtomicCounter counter = atomicCounters.get(key);
 
         if (counter == null) {
+            CountersAndTimers into = evictedInto;
+            if (into != null && type == ValueType.COUNT) {
+                return into.atomicCounter(type, key);
+            }
             counter = new AtomicCounter(type);
             AtomicCounter originalCounter = atomicCounters.putIfAbsent(key, counter);
             if (originalCounter != null) {
                 return originalCounter;
             }
             register(name + ">" + key, counter);
+            into = evictedInto;
+            if (into != null && type == ValueType.COUNT) {
+                counter.forwardTo(into.atomicCounter(type, key));
+            }
         }
         return counter;
     }
@@ -165,7 +528,7 @@ public final class CountersAndTimers {
         BucketedCounter counter = bucketedCounters.get(key);
 
         if (counter == null) {
-            counter = new BucketedCounter(type, bucketSize, numberOfBuckets);
+            counter = new BucketedCounter(clock, type, bucketSize, numberOfBuckets);
             BucketedCounter originalCounter = bucketedCounters.putIfAbsent(key, counter);
             if (originalCounter != null) {
                 return originalCounter;
@@ -175,50 +538,84 @@ public final class CountersAndTimers {
         return counter;
     }
 
-    public void startNanoTimer(String key) {
+    public Timer timer(String key, int sampleWindowSize) {
+        Timer timer = timers.get(key);
 
-        String threadKey = key + Thread.currentThread().getId();
-        Long startTime = startTimes.get(threadKey);
+        if (timer == null) {
+            timer = newTimer(sampleWindowSize);
+            Timer exisitingTimer = timers.putIfAbsent(key, timer);
+            if (exisitingTimer != null) {
+                return exisitingTimer;
+            }
+            register(name + ">" + key, timer);
+        }
+        return timer;
+    }
 
-        if (startTime == null) {
-            startTime = System.nanoTime();
-            startTimes.put(threadKey, startTime);
+    private Timer newTimer(int sampleWindowSize) {
+        TimerMode mode = timerMode;
+        if (mode == TimerMode.HISTOGRAM) {
+            return new Timer(new LogLinearHistogram(), clock);
+        } else if (mode == TimerMode.TIME_WINDOW) {
+            return new Timer(new WindowedHistogram(clock, timeWindowMillis, timeWindowSlices), clock);
         }
+        return new Timer(sampleWindowSize, clock);
+    }
+
+    /**
+     * Ids are unique across every CountersAndTimers so that one stack per thread can hold all of a threads started timers. The low bit tells nano
+     * timers from milli timers.
+     */
+    private int timerId(String key, boolean nanos) {
+        Integer id = timerIds.get(key);
+        if (id == null) {
+            id = TIMER_IDS.incrementAndGet();
+            Integer had = timerIds.putIfAbsent(key, id);
+            if (had != null) {
+                id = had;
+            }
+        }
+        return (id << 1) | (nanos ? 1 : 0);
+    }
+
+    /**
+     * @param timerId as handed out by timerId(key, nanos).
+     */
+    boolean isAbandoned(int timerId, long startTime) {
+        long maxAge = abandonedTimerMaxAgeMillis;
+        if (maxAge <= 0) {
+            return false;
+        }
+        if ((timerId & 1) == 1) {
+            return clock.nanoTime() - startTime > TimeUnit.MILLISECONDS.toNanos(maxAge);
+        }
+        return clock.currentTimeMillis() - startTime > maxAge;
+    }
+
+    void abandoned() {
+        counter(ValueType.COUNT, ABANDONED_TIMERS).inc();
+    }
+
+    public void startNanoTimer(String key) {
+        TIMER_STACK.get().push(this, timerId(key, true), clock.nanoTime());
     }
 
     public long stopNanoTimer(String key, String recordedKey) {
 
-        String threadKey = key + Thread.currentThread().getId();
-        Long startTime = startTimes.remove(threadKey);
-        if (startTime == null) {
+        long startTime = TIMER_STACK.get().pop(timerId(key, true));
+        if (startTime == Long.MIN_VALUE) {
             LOGGER.warn("Trying to stop a timer you never called start on: TimerId:" + key);
             return -1;
         }
 
-        Timer timer = timers.get(recordedKey);
-        if (timer == null) {
-            timer = new Timer(5000);
-            Timer exisitingTimer = timers.putIfAbsent(recordedKey, timer);
-            if (exisitingTimer == null) {
-                register(name + ">" + recordedKey, timer);
-            } else {
-                timer = exisitingTimer;
-            }
-        }
-        long elapseInNanos = System.nanoTime() - startTime;
+        Timer timer = timer(recordedKey, 5000);
+        long elapseInNanos = clock.nanoTime() - startTime;
         timer.sample(elapseInNanos);
         return elapseInNanos;
     }
 
     public void startTimer(String key) {
-
-        String threadKey = key + Thread.currentThread().getId();
-        Long startTime = startTimes.get(threadKey);
-
-        if (startTime == null) {
-            startTime = System.currentTimeMillis();
-            startTimes.put(threadKey, startTime);
-        }
+        TIMER_STACK.get().push(this, timerId(key, false), clock.currentTimeMillis());
     }
 
     /**
@@ -235,24 +632,14 @@ public final class CountersAndTimers {
 
     public Timer stopAndGetTimer(String key, String recordedKey, int sampleWindowSize) {
 
-        String threadKey = key + Thread.currentThread().getId();
-        Long startTime = startTimes.remove(threadKey);
-        if (startTime == null) {
+        long startTime = TIMER_STACK.get().pop(timerId(key, false));
+        if (startTime == Long.MIN_VALUE) {
             LOGGER.warn("Trying to stop a timer you never called start on: TimerId:" + key);
             return new Timer(2);
         }
 
-        Timer timer = timers.get(recordedKey);
-        if (timer == null) {
-            timer = new Timer(sampleWindowSize);
-            Timer exisitingTimer = timers.putIfAbsent(recordedKey, timer);
-            if (exisitingTimer == null) {
-                register(name + ">" + recordedKey, timer);
-            } else {
-                timer = exisitingTimer;
-            }
-        }
-        long elapseInMillis = System.currentTimeMillis() - startTime;
+        Timer timer = timer(recordedKey, sampleWindowSize);
+        long elapseInMillis = clock.currentTimeMillis() - startTime;
         timer.sample(elapseInMillis);
         return timer;
     }
@@ -278,7 +665,31 @@ public final class CountersAndTimers {
         return timers.get(key);
     }
 
-    private static void register(String name, Object mbean) {
+    private void register(String name, Object mbean) {
+        synchronized (namedMetricsLock) {
+            if (!namesReleased) {
+                int nameId = MetricNames.id(name);
+                NamedMetric[] got = namedMetrics;
+                int size = namedMetricsSize;
+                if (size == got.length) {
+                    got = Arrays.copyOf(got, size * 2);
+                    namedMetrics = got;
+                }
+                got[size] = new NamedMetric(nameId, MetricNames.name(nameId), mbean);
+                namedMetricsSize = size + 1;
+            }
+        }
+        if (mBeanMode == MBeanMode.PER_METRIC) {
+            REGISTRAR.submit(() -> {
+                // a metric created on an evicted tenant would otherwise be registered after the tenant was unregistered.
+                if (evictedInto == null) {
+                    registerNow(mbean.getClass().getSimpleName(), name, mbean);
+                }
+            });
+        }
+    }
+
+    private void registerNow(String type, String name, Object mbean) {
         name = name.replace(':', '_');
 
         String[] parts = name.split(">");
@@ -294,8 +705,7 @@ public final class CountersAndTimers {
             sb.append(parts[i]);
         }
 
-        Class clazz = mbean.getClass();
-        String objectName = "service.metrics:type=" + clazz.getSimpleName() + "," + sb.toString();
+        String objectName = "service.metrics:type=" + type + "," + sb.toString();
 
         LOGGER.debug("registering bean: " + objectName);
 
@@ -310,6 +720,7 @@ public final class CountersAndTimers {
             }
 
             mbs.registerMBean(mbean, mbeanName);
+            registeredNames.add(mbeanName);
 
             LOGGER.debug("registered bean: " + objectName);
         } catch (MalformedObjectNameException | NotCompliantMBeanException |
@@ -318,6 +729,57 @@ public final class CountersAndTimers {
         }
     }
 
+    /**
+     * Appends a row per metric of this and every tenant specific CountersAndTimers. Walks plain lists rather than the metric maps so nothing but the
+     * occasional TimerSnapshot is allocated.
+     */
+    void captureInto(MetricsSnapshot snapshot) {
+        int size = namedMetricsSize;
+        NamedMetric[] all = namedMetrics;
+        for (int i = 0; i < size; i++) {
+            NamedMetric named = all[i];
+            Object metric = named.metric;
+            if (metric instanceof Counter) {
+                Counter counter = (Counter) metric;
+                snapshot.addCounter(named.nameId, named.name, MetricsSnapshot.COUNTER, counter.getValueType(), counter.getValue());
+            } else if (metric instanceof AtomicCounter) {
+                AtomicCounter counter = (AtomicCounter) metric;
+                snapshot.addCounter(named.nameId, named.name, MetricsSnapshot.ATOMIC_COUNTER, counter.getValueType(), counter.getValue());
+            } else if (metric instanceof BucketedCounter) {
+                BucketedCounter counter = (BucketedCounter) metric;
+                snapshot.addCounter(named.nameId, named.name, MetricsSnapshot.BUCKETED_COUNTER, counter.getValueType(), counter.getValue());
+            } else if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                int row = snapshot.addTimer(named.nameId, named.name, timer.getTotalSampleCount(), timer.getSnapshot());
+                if (timer.histogram instanceof LogLinearHistogram) {
+                    LogLinearHistogram histogram = (LogLinearHistogram) timer.histogram;
+                    int offset = snapshot.reserveBuckets(row, histogram.getPrecisionBits(), histogram.getNumberOfBuckets(), histogram.getSum());
+                    histogram.copyCounts(snapshot.getBuckets(), offset);
+                }
+            }
+        }
+        for (CountersAndTimers tenant : tenantSpecifcMetric.values()) {
+            tenant.captureInto(snapshot);
+        }
+        CountersAndTimers other = otherTenants;
+        if (other != null) {
+            other.captureInto(snapshot);
+        }
+    }
+
+    private static final class NamedMetric {
+
+        private final int nameId;
+        private final String name;
+        private final Object metric;
+
+        private NamedMetric(int nameId, String name, Object metric) {
+            this.nameId = nameId;
+            this.name = name;
+            this.metric = metric;
+        }
+    }
+
     public void resetAllCounterAndTimers() {
         for (Counter v : counters.values()) {
             v.reset();
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes every metric of one {@link CountersAndTimers} as attributes of a single DynamicMBean, see {@link MBeanMode#PER_INSTANCE}. Attributes are
+ * named after the type of metric and its key, Counter.key, AtomicCounter.key and BucketedCounter.key hold the value and each timer contributes
+ * Timer.key.Min, Timer.key.Max, Timer.key.Mean, Timer.key.Variance and Timer.key.50ThPercentile through Timer.key.99ThPercentile.
+ *
+ * getAttributes resolves only the requested attributes. It looks every requested metric up first and then captures each one once, back to back,
+ * a value per counter and one {@link TimerSnapshot} per timer however many of its stats are asked for, so all the attributes of one call come from
+ * that single capture pass. The MBeanInfo is only built when asked for and is rebuilt only after metrics have been added.
+ *
+ * @author jonathan
+ */
+final class CountersAndTimersMBean implements DynamicMBean {
+
+    private static final String[] TIMER_STATS = {"Min", "Max", "Mean", "Variance",
+        "50ThPercentile", "75ThPercentile", "90ThPercentile", "95ThPercentile", "99ThPercentile"};
+
+    private final CountersAndTimers countersAndTimers;
+    private volatile MBeanInfo info;
+    private volatile int infoShape = -1;
+
+    CountersAndTimersMBean(CountersAndTimers countersAndTimers) {
+        this.countersAndTimers = countersAndTimers;
+    }
+
+    private int shape() {
+        return countersAndTimers.getCounters().size()
+            + countersAndTimers.getAtomicCounters().size()
+            + countersAndTimers.getBucketedCounters().size()
+            + countersAndTimers.getTimers().size();
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object metric = lookup(attribute);
+        Object value = metric == null ? null : value(attribute, metric, capture(metric));
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    /**
+     * @return the Counter, AtomicCounter, BucketedCounter or Timer attribute is about, null if there is no such attribute.
+     */
+    private Object lookup(String attribute) {
+        int dot = attribute.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String type = attribute.substring(0, dot);
+        String key = attribute.substring(dot + 1);
+        if (type.equals("Counter")) {
+            return countersAndTimers.getCounterIfAvailable(key);
+        } else if (type.equals("AtomicCounter")) {
+            return countersAndTimers.getAtomicCounterIfAvailable(key);
+        } else if (type.equals("BucketedCounter")) {
+            return countersAndTimers.getBucketedCounterIfAvailable(key);
+        } else if (type.equals("Timer")) {
+            int stat = key.lastIndexOf('.');
+            if (stat > 0) {
+                return countersAndTimers.getTimerIfAvailable(key.substring(0, stat));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the counters value or the timers snapshot.
+     */
+    private static Object capture(Object metric) {
+        if (metric instanceof Counter) {
+            return ((Counter) metric).getValue();
+        } else if (metric instanceof AtomicCounter) {
+            return ((AtomicCounter) metric).getValue();
+        } else if (metric instanceof BucketedCounter) {
+            return ((BucketedCounter) metric).getValue();
+        }
+        return ((Timer) metric).getSnapshot();
+    }
+
+    /**
+     * @return null if attribute names an unknown timer stat.
+     */
+    private static Object value(String attribute, Object metric, Object captured) {
+        if (metric instanceof Timer) {
+            return timerStat((TimerSnapshot) captured, attribute.substring(attribute.lastIndexOf('.') + 1));
+        }
+        return captured;
+    }
+
+    private static Double timerStat(TimerSnapshot snapshot, String stat) {
+        switch (stat) {
+            case "Min":
+                return snapshot.getMin();
+            case "Max":
+                return snapshot.getMax();
+            case "Mean":
+                return snapshot.getMean();
+            case "Variance":
+                return snapshot.getVariance();
+            case "50ThPercentile":
+                return snapshot.get50ThPercentile();
+            case "75ThPercentile":
+                return snapshot.get75ThPercentile();
+            case "90ThPercentile":
+                return snapshot.get90ThPercentile();
+            case "95ThPercentile":
+                return snapshot.get95ThPercentile();
+            case "99ThPercentile":
+                return snapshot.get99ThPercentile();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Object[] metrics = new Object[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            metrics[i] = lookup(attributes[i]);
+        }
+        Map<Object, Object> captured = new IdentityHashMap<>();
+        for (Object metric : metrics) {
+            if (metric != null && !captured.containsKey(metric)) {
+                captured.put(metric, capture(metric));
+            }
+        }
+        AttributeList list = new AttributeList(attributes.length);
+        for (int i = 0; i < attributes.length; i++) {
+            if (metrics[i] != null) {
+                Object value = value(attributes[i], metrics[i], captured.get(metrics[i]));
+                if (value != null) {
+                    list.add(new Attribute(attributes[i], value));
+                }
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        int shape = shape();
+        MBeanInfo got = info;
+        if (got == null || infoShape != shape) {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>(shape);
+            for (Entry<String, Counter> entry : countersAndTimers.getCounters()) {
+                attributes.add(attribute("Counter." + entry.getKey(), "long", entry.getValue().getType()));
+            }
+            for (Entry<String, AtomicCounter> entry : countersAndTimers.getAtomicCounters()) {
+                attributes.add(attribute("AtomicCounter." + entry.getKey(), "long", entry.getValue().getType()));
+            }
+            for (Entry<String, BucketedCounter> entry : countersAndTimers.getBucketedCounters()) {
+                attributes.add(attribute("BucketedCounter." + entry.getKey(), "long", entry.getValue().getType()));
+            }
+            for (Entry<String, Timer> entry : countersAndTimers.getTimers()) {
+                for (String stat : TIMER_STATS) {
+                    attributes.add(attribute("Timer." + entry.getKey() + "." + stat, "double", stat));
+                }
+            }
+            got = new MBeanInfo(CountersAndTimers.class.getName(), countersAndTimers.getName(),
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+            info = got;
+            infoShape = shape;
+        }
+        return got;
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type, String description) {
+        return new MBeanAttributeInfo(name, type, description, true, false, false);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Turns the cumulative registry into per interval deltas once per interval and hands the result to every {@link MetricsSink}, so sinks no longer
+ * need their own shadow copies of previous values.
+ *
+ * In the interval snapshot COUNT counters and atomic counters hold how much they changed since the previous report, other value types and bucketed
+ * counters hold their current value. Timers in {@link TimerMode#HISTOGRAM} mode hold an interval histogram, the difference between this and the
+ * previous reports cumulative bucket counts, and their summary describes only the samples recorded during the interval. Other timers hold the
+ * number of samples taken during the interval with the summary of their current window. Previous values are kept in arrays indexed by kind
+ * and {@link MetricNames} id, a counter and a timer may share a name, and are forgotten when an id shows up with a different name. A value that
+ * went down, because the metric was reset or re-created, is reported as if it had counted up from 0.
+ *
+ * @author jonathan
+ */
+public final class IntervalReporter implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(IntervalReporter.class.getName());
+
+    private final Clock clock;
+    private final CopyOnWriteArrayList<MetricsSink> sinks = new CopyOnWriteArrayList<>();
+    private final MetricsSnapshot cumulative = new MetricsSnapshot();
+    private final MetricsSnapshot interval = new MetricsSnapshot();
+    private final LogLinearHistogram[] layouts = new LogLinearHistogram[17];
+    private final long[][] previousValues = new long[4][0];
+    private long[] previousSums = new long[0];
+    private long[][] previousBuckets = new long[0][];
+    /**
+     * The interval bucket counts of the timer being reported, reused by every timer and report.
+     */
+    private long[] scratch = new long[0];
+    private String[] previousNames = new String[0];
+    private long lastReportMillis;
+    private ScheduledExecutorService scheduler;
+
+    public IntervalReporter(MetricsSink... sinks) {
+        this(SystemClock.INSTANCE, sinks);
+    }
+
+    public IntervalReporter(Clock clock, MetricsSink... sinks) {
+        this.clock = clock;
+        this.sinks.addAll(Arrays.asList(sinks));
+        this.lastReportMillis = clock.currentTimeMillis();
+    }
+
+    public void addSink(MetricsSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(MetricsSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * Reports every intervalMillis on a daemon thread until closed.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-interval-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                report();
+            } catch (RuntimeException e) {
+                LOGGER.warn("interval report failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Computes the interval since the previous report and hands it to every sink.
+     */
+    public synchronized void report() {
+        long now = clock.currentTimeMillis();
+        cumulative.capture();
+        grow(MetricNames.size());
+        interval.clear(now, now - lastReportMillis);
+        lastReportMillis = now;
+        for (int row = 0; row < cumulative.size(); row++) {
+            int nameId = cumulative.getNameId(row);
+            String name = cumulative.getName(row);
+            if (previousNames[nameId] != name) {
+                forget(nameId);
+                previousNames[nameId] = name;
+            }
+            byte kind = cumulative.getKind(row);
+            ValueType valueType = cumulative.getValueType(row);
+            long value = cumulative.getValue(row);
+            if (kind == MetricsSnapshot.TIMER) {
+                if (cumulative.getBucketLength(row) > 0) {
+                    intervalHistogram(row, nameId, now);
+                } else {
+                    interval.addTimer(nameId, name, delta(kind, nameId, value), cumulative.getMin(row), cumulative.getMax(row), cumulative.getMean(row),
+                        cumulative.get50ThPercentile(row), cumulative.get75ThPercentile(row), cumulative.get90ThPercentile(row),
+                        cumulative.get95ThPercentile(row), cumulative.get99ThPercentile(row));
+                }
+            } else if (kind != MetricsSnapshot.BUCKETED_COUNTER && valueType == ValueType.COUNT) {
+                interval.addCounter(nameId, name, kind, valueType, delta(kind, nameId, value));
+            } else {
+                interval.addCounter(nameId, name, kind, valueType, value);
+            }
+        }
+        for (MetricsSink sink : sinks) {
+            try {
+                sink.report(interval);
+            } catch (Exception e) {
+                LOGGER.warn("sink:" + sink + " failed to report", e);
+            }
+        }
+    }
+
+    /**
+     * The id was given back and handed to another name, see {@link MetricNames}.
+     */
+    private void forget(int nameId) {
+        for (long[] previousOfKind : previousValues) {
+            previousOfKind[nameId] = 0;
+        }
+        previousSums[nameId] = 0;
+        previousBuckets[nameId] = null;
+    }
+
+    private long delta(byte kind, int nameId, long value) {
+        long[] previousOfKind = previousValues[kind];
+        long previous = previousOfKind[nameId];
+        previousOfKind[nameId] = value;
+        return value < previous ? value : value - previous;
+    }
+
+    private void intervalHistogram(int row, int nameId, long now) {
+        int length = cumulative.getBucketLength(row);
+        int precisionBits = cumulative.getPrecisionBits(row);
+        long[] previous = previousBuckets[nameId];
+        if (previous == null || previous.length != length) {
+            previous = new long[length];
+            previousBuckets[nameId] = previous;
+            previousSums[nameId] = 0;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cumulative.getBucket(row, i) < previous[i]) {
+                Arrays.fill(previous, 0);
+                previousSums[nameId] = 0;
+                break;
+            }
+        }
+        if (scratch.length < length) {
+            scratch = new long[length];
+        }
+        long[] counts = scratch;
+        long count = 0;
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < length; i++) {
+            long current = cumulative.getBucket(row, i);
+            counts[i] = current - previous[i];
+            previous[i] = current;
+            if (counts[i] != 0) {
+                count += counts[i];
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        long sum = cumulative.getSum(row) - previousSums[nameId];
+        previousSums[nameId] = cumulative.getSum(row);
+
+        LogLinearHistogram layout = layout(precisionBits);
+        long min = first < 0 ? Long.MAX_VALUE : layout.lowestEquivalentValue(first);
+        long max = last < 0 ? Long.MIN_VALUE : layout.highestEquivalentValue(last);
+        int intervalRow = interval.addTimer(nameId, cumulative.getName(row), count, layout.snapshot(now, counts, length, sum, min, max));
+        int offset = interval.reserveBuckets(intervalRow, precisionBits, length, sum);
+        System.arraycopy(counts, 0, interval.getBuckets(), offset, length);
+    }
+
+    private LogLinearHistogram layout(int precisionBits) {
+        LogLinearHistogram layout = layouts[precisionBits];
+        if (layout == null) {
+            layout = new LogLinearHistogram(precisionBits, 1L << precisionBits);
+            layouts[precisionBits] = layout;
+        }
+        return layout;
+    }
+
+    private void grow(int names) {
+        if (previousSums.length < names) {
+            int capacity = Math.max(names, previousSums.length * 2);
+            for (int kind = 0; kind < previousValues.length; kind++) {
+                previousValues[kind] = Arrays.copyOf(previousValues[kind], capacity);
+            }
+            previousSums = Arrays.copyOf(previousSums, capacity);
+            previousBuckets = Arrays.copyOf(previousBuckets, capacity);
+            previousNames = Arrays.copyOf(previousNames, capacity);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Applies MBeanServer registrations and unregistrations on a background thread so the thread that creates a metric only pays for a queue offer.
+ * Operations run one at a time in the order they were submitted. Whatever has queued up while the registrar was busy is drained in one batch, so a
+ * burst of new tenants costs one wake up of the registrar thread rather than one per metric.
+ *
+ * @author jonathan
+ */
+public final class JmxRegistrar {
+
+    private static final Logger LOGGER = LogManager.getLogger(JmxRegistrar.class.getName());
+
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    public JmxRegistrar(String threadName) {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param operation runs on the registrar thread after every previously submitted operation.
+     */
+    public void submit(Runnable operation) {
+        pending.offer(operation);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Blocks until every operation submitted before this call has been applied.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            executor.submit(this::drain).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to flush registrations.", e.getCause());
+        }
+    }
+
+    private void drain() {
+        do {
+            for (Runnable operation = pending.poll(); operation != null; operation = pending.poll()) {
+                try {
+                    operation.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("registration failed", e);
+                }
+            }
+            draining.set(false);
+        } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * How a {@link MetricLogger} hands a message with arguments to log4j.
+ *
+ * @author jonathan
+ */
+public enum LogDelivery {
+
+    /**
+     * The message is formatted by {@link MessageFormatter} before it is logged. Exactly the historic behavior.
+     */
+    FORMATTED,
+    /**
+     * The pattern and arguments are passed to log4j's logIfEnabled as a ParameterizedMessage, with MetricLogger as the fully qualified caller class
+     * so location information points at the caller and context wide filters see the message. log4j formats the message only when a filter or
+     * layout asks for it, by its own rules, which also treat a trailing Throwable argument without an anchor as the exception. LoggerSummary lastN
+     * entries keep the pattern and scalar arguments and are formatted when read, other arguments are formatted when the entry is added.
+     */
+    PARAMETERIZED,
+    /**
+     * The call only publishes the pattern, arguments, throwable, timestamp, thread name and ThreadContext to the {@link AsyncLogDispatcher}, whose
+     * consumer thread formats the message the FORMATTED way, does the LoggerSummary bookkeeping and logs a log4j event built from what the call
+     * captured. The level check and the logged.* counters stay on the caller.
+     */
+    ASYNC
+}
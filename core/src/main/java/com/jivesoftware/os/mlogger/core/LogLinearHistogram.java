@@ -0,0 +1,392 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of non negative longs with log-linear buckets, in the spirit of HdrHistogram. Values below 2^precisionBits each get their own
+ * bucket. Above that every power of two is split into 2^precisionBits equal width buckets, so the relative error of any reported value is at most
+ * 1 / 2^precisionBits. Values above highestTrackableValue are counted in the last bucket, the exact max is still kept.
+ *
+ * Recording is an index computation, an atomic add on the bucket and a {@link StripedLong} add on the sum, and never allocates or takes a lock. The
+ * exact min and max are kept per stripe of recording threads, each stripe on its own cache line. A stripe is only written when it sees a new extreme,
+ * and its CAS can only be retried because of a thread of the same stripe. Threads recording values in the same bucket still share that bucket's
+ * line. Percentiles are answered with one pass over the buckets.
+ *
+ * @author jonathan
+ */
+public final class LogLinearHistogram implements TimerHistogram {
+
+    /**
+     * 32 sub buckets per power of two, at most ~3% relative error.
+     */
+    public static final int DEFAULT_PRECISION_BITS = 5;
+    /**
+     * ~19 hours in millis, ~68 seconds in nanos.
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = (1L << 36) - 1;
+
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final StripedLong sum = new StripedLong();
+    private final int stripeMask;
+    /**
+     * The min then the max of each stripe, one stripe per cache line after a leading pad line, like StripedLong's cells.
+     */
+    private final AtomicLongArray extremes;
+
+    public LogLinearHistogram() {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    /**
+     * @param precisionBits 1 - 16, each extra bit halves the relative error and doubles the footprint.
+     * @param highestTrackableValue must be at least 2^precisionBits.
+     */
+    public LogLinearHistogram(int precisionBits, long highestTrackableValue) {
+        this(precisionBits, highestTrackableValue, StripedLong.DEFAULT_STRIPES);
+    }
+
+    LogLinearHistogram(int precisionBits, long highestTrackableValue, int stripes) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("precisionBits must be between 1 and 16.");
+        }
+        if (highestTrackableValue < (1L << precisionBits)) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2^precisionBits.");
+        }
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+        this.stripeMask = StripedLong.stripesFor(stripes) - 1;
+        this.extremes = new AtomicLongArray((stripeMask + 2) * StripedLong.PAD);
+        resetExtremes();
+    }
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getNumberOfBuckets() {
+        return counts.length();
+    }
+
+    int indexOf(long value) {
+        if (value < subBucketCount) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return ((shift + 1) << precisionBits) + (int) ((value >>> shift) - subBucketCount);
+    }
+
+    long lowestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return (long) (subBucketCount + (index & (subBucketCount - 1))) << shift;
+    }
+
+    long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+
+    private double medianEquivalentValue(int index) {
+        return (lowestEquivalentValue(index) + highestEquivalentValue(index)) / 2d;
+    }
+
+    /**
+     * Negative values are recorded as 0.
+     */
+    @Override
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.getAndIncrement(indexOf(value));
+        sum.add(value);
+        int stripe = (((int) Thread.currentThread().getId() & stripeMask) + 1) * StripedLong.PAD;
+        long current = extremes.get(stripe);
+        while (value < current && !extremes.compareAndSet(stripe, current, value)) {
+            current = extremes.get(stripe);
+        }
+        current = extremes.get(stripe + 1);
+        while (value > current && !extremes.compareAndSet(stripe + 1, current, value)) {
+            current = extremes.get(stripe + 1);
+        }
+    }
+
+    private void resetExtremes() {
+        for (int i = StripedLong.PAD; i < extremes.length(); i += StripedLong.PAD) {
+            extremes.set(i, Long.MAX_VALUE);
+            extremes.set(i + 1, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Not atomic with respect to concurrent records.
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        resetExtremes();
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getCountAtIndex(int index) {
+        return counts.get(index);
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return NaN if empty.
+     */
+    public double getMin() {
+        long value = getRawMin();
+        return value == Long.MAX_VALUE ? Double.NaN : value;
+    }
+
+    /**
+     * @return NaN if empty.
+     */
+    public double getMax() {
+        long value = getRawMax();
+        return value == Long.MIN_VALUE ? Double.NaN : value;
+    }
+
+    /**
+     * @return NaN if empty.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? Double.NaN : (double) sum.sum() / count;
+    }
+
+    /**
+     * Sample variance computed from the bucket midpoints.
+     *
+     * @return NaN if empty, 0 for a single sample.
+     */
+    public double getVariance() {
+        long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count == 1) {
+            return 0d;
+        }
+        double mean = (double) sum.sum() / count;
+        double sumOfSquares = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                double delta = medianEquivalentValue(i) - mean;
+                sumOfSquares += delta * delta * c;
+            }
+        }
+        return sumOfSquares / (count - 1);
+    }
+
+    /**
+     * @param percentile 0 - 100
+     * @return NaN if empty.
+     */
+    @Override
+    public double getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (percentile >= 100d) {
+            return getMax();
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0d, percentile) / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return clamp(medianEquivalentValue(i));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Copies the buckets once and derives every value from that copy, so the result is consistent even while other threads record.
+     */
+    @Override
+    public TimerSnapshot snapshot(long timestampMillis) {
+        long[] copy = new long[counts.length()];
+        copyCounts(copy);
+        return snapshot(timestampMillis, copy, sum.sum(), getRawMin(), getRawMax());
+    }
+
+    /**
+     * Adds this histograms bucket counts into counts, which must be at least getNumberOfBuckets() long.
+     */
+    void copyCounts(long[] counts) {
+        copyCounts(counts, 0);
+    }
+
+    void copyCounts(long[] counts, int offset) {
+        for (int i = 0; i < this.counts.length(); i++) {
+            counts[offset + i] += this.counts.get(i);
+        }
+    }
+
+    /**
+     * @return Long.MAX_VALUE if empty.
+     */
+    long getRawMin() {
+        long min = Long.MAX_VALUE;
+        for (int i = StripedLong.PAD; i < extremes.length(); i += StripedLong.PAD) {
+            min = Math.min(min, extremes.get(i));
+        }
+        return min;
+    }
+
+    /**
+     * @return Long.MIN_VALUE if empty.
+     */
+    long getRawMax() {
+        long max = Long.MIN_VALUE;
+        for (int i = StripedLong.PAD; i < extremes.length(); i += StripedLong.PAD) {
+            max = Math.max(max, extremes.get(i + 1));
+        }
+        return max;
+    }
+
+    /**
+     * @param counts bucket counts laid out the same way as this histogram.
+     * @param min Long.MAX_VALUE if empty.
+     * @param max Long.MIN_VALUE if empty.
+     */
+    TimerSnapshot snapshot(long timestampMillis, long[] counts, long sum, long min, long max) {
+        return snapshot(timestampMillis, counts, counts.length, sum, min, max);
+    }
+
+    /**
+     * @param length how many of counts are buckets, the rest is ignored.
+     */
+    TimerSnapshot snapshot(long timestampMillis, long[] counts, int length, long sum, long min, long max) {
+        long count = 0;
+        for (int i = 0; i < length; i++) {
+            count += counts[i];
+        }
+        if (count == 0) {
+            return new TimerSnapshot(timestampMillis, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        double lowest = min;
+        double highest = max;
+        double mean = (double) sum / count;
+
+        double[] percentiles = {50, 75, 90, 95, 99};
+        double[] values = new double[percentiles.length];
+        long[] ranks = new long[percentiles.length];
+        for (int p = 0; p < percentiles.length; p++) {
+            ranks[p] = Math.max(1, (long) Math.ceil(percentiles[p] / 100d * count));
+        }
+        int p = 0;
+        long seen = 0;
+        double sumOfSquares = 0;
+        for (int i = 0; i < length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            double median = medianEquivalentValue(i);
+            double delta = median - mean;
+            sumOfSquares += delta * delta * counts[i];
+            seen += counts[i];
+            while (p < ranks.length && seen >= ranks[p]) {
+                values[p] = clamp(median, lowest, highest);
+                p++;
+            }
+        }
+        double variance = count == 1 ? 0d : sumOfSquares / (count - 1);
+        return new TimerSnapshot(timestampMillis, count, lowest, highest, mean, variance,
+            values[0], values[1], values[2], values[3], values[4]);
+    }
+
+    /**
+     * @param counts bucket counts laid out the same way as this histogram.
+     * @param percentile 0 - 100
+     * @return NaN if empty.
+     */
+    double getValueAtPercentile(long[] counts, long min, long max, double percentile) {
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (percentile >= 100d) {
+            return max;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0d, percentile) / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return clamp(medianEquivalentValue(i), min, max);
+            }
+        }
+        return max;
+    }
+
+    private double clamp(double value) {
+        return clamp(value, getMin(), getMax());
+    }
+
+    private static double clamp(double value, double lowest, double highest) {
+        if (value < lowest) {
+            return lowest;
+        }
+        if (value > highest) {
+            return highest;
+        }
+        return value;
+    }
+}
@@ -17,6 +17,7 @@ package com.jivesoftware.os.mlogger.core;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Date;
@@ -42,24 +43,28 @@ public class LoggerSummary {
     public final LongAdder warns = new LongAdder();
     public final LongAdder errors = new LongAdder();
 
-    public final LastN<String> lastNInfos = new LastN<String>(new String[10]) {
-        @Override
-        public void add(String t) {
-            super.add(DATE_FORMAT.format(new Date()) + " " + t);
-        }
-    };
-    public final LastN<String> lastNWarns = new LastN<String>(new String[10]) {
-        @Override
-        public void add(String t) {
-            super.add(DATE_FORMAT.format(new Date()) + " " + t);
-        }
-    };
-    public final LastN<String> lastNErrors = new LastN<String>(new String[10]) {
-        @Override
-        public void add(String t) {
-            super.add(DATE_FORMAT.format(new Date()) + " " + t);
-        }
-    };
+    private volatile Clock clock = SystemClock.INSTANCE;
+
+    final LastNMessages infoMessages = new LastNMessages(10);
+    final LastNMessages warnMessages = new LastNMessages(10);
+    final LastNMessages errorMessages = new LastNMessages(10);
+
+    public final LastN<String> lastNInfos = infoMessages;
+    public final LastN<String> lastNWarns = warnMessages;
+    public final LastN<String> lastNErrors = errorMessages;
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * The clock used to stamp lastN messages and thrown messages.
+     *
+     * @param clock null NOT ok.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
 
     public void reset() {
         lastNInfos.clear(null);
@@ -111,7 +116,7 @@ public class LoggerSummary {
             if (current == null) {
                 compute = t;
             }
-            compute.increment(new ThrownMessage(Thread.currentThread().getName(), throwable.getMessage(), System.currentTimeMillis()));
+            compute.increment(new ThrownMessage(Thread.currentThread().getName(), throwable.getMessage(), clock.currentTimeMillis()));
             if (throwable.getCause() != null) {
                 compute(compute.cause, level, throwable.getCause());
             }
@@ -126,7 +131,7 @@ public class LoggerSummary {
         String message = throwable.getMessage();
         StackTraceElement[] stackTrace = throwable.getStackTrace();
         String key = key(level, throwable, stackTrace);
-        return new Thrown(key, level, package_, class_, new ThrownMessage(Thread.currentThread().getName(), message, System.currentTimeMillis()), stackTrace);
+        return new Thrown(key, level, package_, class_, new ThrownMessage(Thread.currentThread().getName(), message, clock.currentTimeMillis()), stackTrace);
     }
 
     private String key(String level, Throwable throwable, StackTraceElement[] stackTrace) {
@@ -204,4 +209,99 @@ public class LoggerSummary {
             this.timestamp = timestamp;
         }
     }
+
+    /**
+     * The last N messages of a level, each stamped with the time it was added. Entries added as a pattern and arguments are only formatted when
+     * get() is called. Arguments that are not immutable scalars are formatted when the entry is added, so an entry neither pins them nor shows
+     * later changes to them. Not thread safe, like LastN, but an entry is published as a whole so a reader never mixes two messages.
+     */
+    final class LastNMessages extends LastN<String> {
+
+        private final Entry[] entries;
+        private int i = 0;
+
+        private LastNMessages(int n) {
+            super(new String[0]);
+            this.entries = new Entry[n];
+        }
+
+        @Override
+        public void add(String message) {
+            put(new Entry(clock.currentTimeMillis(), message, null));
+        }
+
+        /**
+         * @param timestamp when the message was logged, which for an asynchronous delivery is earlier than now.
+         * @param args null if messagePattern is the message.
+         */
+        void add(long timestamp, String messagePattern, Object[] args) {
+            put(new Entry(timestamp, messagePattern, args == null ? null : snapshot(args)));
+        }
+
+        private Object[] snapshot(Object[] args) {
+            Object[] snapshot = new Object[args.length];
+            for (int a = 0; a < args.length; a++) {
+                Object arg = args[a];
+                snapshot[a] = isImmutable(arg) ? arg : MessageFormatter.format(MessageFormatter.DELIM_STR, arg);
+            }
+            return snapshot;
+        }
+
+        private void put(Entry entry) {
+            int stackCopy = i;
+            entries[stackCopy] = entry;
+            stackCopy++;
+            if (stackCopy >= entries.length) {
+                stackCopy = 0;
+            }
+            i = stackCopy;
+        }
+
+        @Override
+        public String[] get() {
+            int start = i;
+            String[] got = new String[entries.length];
+            for (int j = 0; j < got.length; j++) {
+                Entry entry = entries[(j + start) % got.length];
+                got[j] = entry == null ? null : entry.toString();
+            }
+            return got;
+        }
+
+        /**
+         * @param fill stored as is, without a timestamp.
+         */
+        @Override
+        public void clear(String fill) {
+            Arrays.fill(entries, fill == null ? null : new Entry(Long.MIN_VALUE, fill, null));
+        }
+    }
+
+    private static boolean isImmutable(Object arg) {
+        return arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long || arg instanceof Boolean
+            || arg instanceof Character || arg instanceof Double || arg instanceof Float || arg instanceof Short || arg instanceof Byte
+            || arg instanceof Enum;
+    }
+
+    private static final class Entry {
+
+        private final long timestamp;
+        private final String message;
+        private final Object[] args;
+
+        private Entry(long timestamp, String message, Object[] args) {
+            this.timestamp = timestamp;
+            this.message = message;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            String formatted = args == null ? message : MessageFormatter.arrayFormat(message, args);
+            if (timestamp == Long.MIN_VALUE) {
+                return formatted;
+            }
+            return DATE_FORMAT.format(new Date(timestamp)) + " " + formatted;
+        }
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * How {@link CountersAndTimers} exposes its metrics over JMX.
+ *
+ * @author jonathan
+ */
+public enum MBeanMode {
+
+    /**
+     * One MBean per counter, atomic counter, bucketed counter and timer, named service.metrics:type=Counter,leaf0=...
+     */
+    PER_METRIC,
+    /**
+     * One DynamicMBean per CountersAndTimers, named service.metrics:type=CountersAndTimers,leaf0=..., with every metric as an attribute.
+     */
+    PER_INSTANCE
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that only moves when told to. Handy for deterministic tests of bucket and window logic.
+ *
+ * @author jonathan
+ */
+public final class ManualClock implements Clock {
+
+    private volatile long nanos;
+
+    public ManualClock(long currentTimeMillis) {
+        this.nanos = TimeUnit.MILLISECONDS.toNanos(currentTimeMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public synchronized void setCurrentTimeMillis(long currentTimeMillis) {
+        this.nanos = TimeUnit.MILLISECONDS.toNanos(currentTimeMillis);
+    }
+
+    public synchronized void advance(long amount, TimeUnit unit) {
+        this.nanos += unit.toNanos(amount);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Mirrors every metric into a memory mapped file so another process on the same host, see {@link MappedMetricsReader}, can read them with plain
+ * memory loads instead of JMX. Counters are striped across cache lines, so their value is a sum and cannot live in the file itself. Instead the
+ * file is refreshed from a {@link MetricsSnapshot}, either on a schedule via start(periodMillis) or by calling update.
+ *
+ * Layout version 2, little endian:
+ * <pre>
+ * header   64 bytes at 0
+ *   0  int   magic 0x4D4C4F47 "MLOG"
+ *   4  int   version
+ *   8  int   slot capacity
+ *   12 int   label region offset, always 64
+ *   16 int   label length, bytes per label
+ *   20 int   value region offset, 64 byte aligned
+ *   24 int   slots in use
+ *   28 int   writer pid or 0
+ *   32 long  sequence, odd while an update is in progress
+ *   40 long  timestamp millis of the last update
+ *   48 long  label generation, bumped whenever a label below slots in use is rewritten or marked dead
+ * labels   slot capacity * label length bytes
+ *   0  int   name length in bytes
+ *   4  byte  kind, see MetricsSnapshot
+ *   5  byte  ValueType ordinal
+ *   6  byte  flags, LABEL_DEAD once the metric is gone
+ *   8  utf8  name, truncated to label length - 8 bytes
+ * values   slot capacity * 64 bytes, one 64 byte aligned slot per metric
+ *   0  long  value, the sample count for timers
+ *   8  double min, max, mean, p50, p90, p95, p99 for timers
+ * </pre>
+ * A slot and its label are assigned the first time a metric is mirrored and do not move while the metric lives. When a {@link MetricNames} id
+ * is reused for another name its slot is relabelled for the new name. A metric missing from an update is gone, for example its tenant was evicted,
+ * so its label is marked dead and its slot is handed to the next new metric. Labels are only written while the sequence is odd, and a new slot's
+ * label is written before slots in use is bumped. A reader copies what it needs between two reads of the sequence and retries if the sequence was
+ * odd or changed, the same way a seqlock works. The writer puts a store fence after the odd sequence, so no value lands before readers can see an
+ * update started, and another before the even sequence. The reader puts a load fence after its first read of the sequence and another before the
+ * re-check, and re-reads every label when the label generation has changed.
+ *
+ * @author jonathan
+ */
+public final class MappedMetricsFile implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(MappedMetricsFile.class.getName());
+
+    public static final int MAGIC = 0x4D4C4F47;
+    public static final int VERSION = 2;
+    public static final int HEADER_LENGTH = 64;
+    public static final int SLOT_LENGTH = 64;
+    public static final int DEFAULT_LABEL_LENGTH = 256;
+    public static final int DEFAULT_SLOT_CAPACITY = 16_384;
+
+    static final int SLOT_CAPACITY_OFFSET = 8;
+    static final int LABEL_REGION_OFFSET = 12;
+    static final int LABEL_LENGTH_OFFSET = 16;
+    static final int VALUE_REGION_OFFSET = 20;
+    static final int SLOTS_IN_USE_OFFSET = 24;
+    static final int PID_OFFSET = 28;
+    static final int SEQUENCE_OFFSET = 32;
+    static final int TIMESTAMP_OFFSET = 40;
+    static final int LABEL_GENERATION_OFFSET = 48;
+    static final int LABEL_FLAGS_OFFSET = 6;
+    static final byte LABEL_DEAD = 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCapacity;
+    private final int labelLength;
+    private final int valueRegionOffset;
+    private final int[][] slots = new int[4][0];
+    private final String[][] slotNames = new String[4][0];
+    private final MetricsSnapshot snapshot = new MetricsSnapshot();
+    /**
+     * Per slot, the update that last wrote it, its kind and name id, and whether its label is marked dead.
+     */
+    private final long[] slotUpdates;
+    private final byte[] slotKinds;
+    private final int[] slotNameIds;
+    private final boolean[] slotDead;
+    private final int[] freeSlots;
+    private int freeSize;
+    private int slotsInUse;
+    private long sequence;
+    private long updates;
+    private long labelGeneration;
+    private boolean warnedFull;
+    private ScheduledExecutorService scheduler;
+
+    public MappedMetricsFile(File path) throws IOException {
+        this(path, DEFAULT_SLOT_CAPACITY, DEFAULT_LABEL_LENGTH);
+    }
+
+    /**
+     * Creates or truncates path.
+     */
+    public MappedMetricsFile(File path, int slotCapacity, int labelLength) throws IOException {
+        if (slotCapacity < 1 || labelLength < 16) {
+            throw new IllegalArgumentException("slotCapacity must be at least 1 and labelLength at least 16.");
+        }
+        this.slotCapacity = slotCapacity;
+        this.labelLength = labelLength;
+        this.slotUpdates = new long[slotCapacity];
+        this.slotKinds = new byte[slotCapacity];
+        this.slotNameIds = new int[slotCapacity];
+        this.slotDead = new boolean[slotCapacity];
+        this.freeSlots = new int[slotCapacity];
+        int labelsEnd = HEADER_LENGTH + slotCapacity * labelLength;
+        this.valueRegionOffset = (labelsEnd + SLOT_LENGTH - 1) / SLOT_LENGTH * SLOT_LENGTH;
+        int length = valueRegionOffset + slotCapacity * SLOT_LENGTH;
+
+        this.file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        file.setLength(length);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(SLOT_CAPACITY_OFFSET, slotCapacity);
+        buffer.putInt(LABEL_REGION_OFFSET, HEADER_LENGTH);
+        buffer.putInt(LABEL_LENGTH_OFFSET, labelLength);
+        buffer.putInt(VALUE_REGION_OFFSET, valueRegionOffset);
+        buffer.putInt(SLOTS_IN_USE_OFFSET, 0);
+        buffer.putInt(PID_OFFSET, pid());
+        buffer.putLong(SEQUENCE_OFFSET, 0);
+        buffer.putLong(LABEL_GENERATION_OFFSET, 0);
+        buffer.putInt(4, VERSION);
+        Fences.storeFence();
+        buffer.putInt(0, MAGIC);
+    }
+
+    private static int pid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        try {
+            return at > 0 ? Integer.parseInt(name.substring(0, at)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Captures the whole registry into the file every periodMillis on a daemon thread until closed.
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mapped-metrics-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                update();
+            } catch (RuntimeException e) {
+                LOGGER.warn("mapped metrics update failed", e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Captures the whole registry into the file.
+     */
+    public synchronized void update() {
+        update(snapshot.capture());
+    }
+
+    /**
+     * @param cumulative a capture of cumulative values, not an interval, of every metric to mirror. A metric that was mirrored before but is
+     * missing from cumulative is marked dead.
+     */
+    public synchronized void update(MetricsSnapshot cumulative) {
+        sequence++;
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        Fences.storeFence();
+        updates++;
+        for (int row = 0; row < cumulative.size(); row++) {
+            int slot = slot(cumulative, row);
+            if (slot < 0) {
+                continue;
+            }
+            slotUpdates[slot] = updates;
+            int at = valueRegionOffset + slot * SLOT_LENGTH;
+            buffer.putLong(at, cumulative.getValue(row));
+            if (cumulative.getKind(row) == MetricsSnapshot.TIMER) {
+                buffer.putDouble(at + 8, cumulative.getMin(row));
+                buffer.putDouble(at + 16, cumulative.getMax(row));
+                buffer.putDouble(at + 24, cumulative.getMean(row));
+                buffer.putDouble(at + 32, cumulative.get50ThPercentile(row));
+                buffer.putDouble(at + 40, cumulative.get90ThPercentile(row));
+                buffer.putDouble(at + 48, cumulative.get95ThPercentile(row));
+                buffer.putDouble(at + 56, cumulative.get99ThPercentile(row));
+            }
+        }
+        for (int slot = 0; slot < slotsInUse; slot++) {
+            if (!slotDead[slot] && slotUpdates[slot] != updates) {
+                bury(slot);
+            }
+        }
+        buffer.putLong(TIMESTAMP_OFFSET, cumulative.getTimestampMillis());
+        Fences.storeFence();
+        sequence++;
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+    }
+
+    private int slot(MetricsSnapshot cumulative, int row) {
+        int kind = cumulative.getKind(row);
+        int nameId = cumulative.getNameId(row);
+        int[] slotsOfKind = slots[kind];
+        if (nameId >= slotsOfKind.length) {
+            int had = slotsOfKind.length;
+            slotsOfKind = Arrays.copyOf(slotsOfKind, Math.max(nameId + 1, had * 2));
+            Arrays.fill(slotsOfKind, had, slotsOfKind.length, -1);
+            slots[kind] = slotsOfKind;
+            slotNames[kind] = Arrays.copyOf(slotNames[kind], slotsOfKind.length);
+        }
+        int slot = slotsOfKind[nameId];
+        String canonical = cumulative.getName(row);
+        if (slot >= 0 && slotNames[kind][nameId] == canonical) {
+            return slot;
+        }
+        if (slot >= 0) {
+            // the id now names another metric, relabel its slot.
+            labelGeneration++;
+            buffer.putLong(LABEL_GENERATION_OFFSET, labelGeneration);
+        } else if (freeSize > 0) {
+            freeSize--;
+            slot = freeSlots[freeSize];
+            slotDead[slot] = false;
+            labelGeneration++;
+            buffer.putLong(LABEL_GENERATION_OFFSET, labelGeneration);
+        } else if (slotsInUse == slotCapacity) {
+            if (!warnedFull) {
+                warnedFull = true;
+                LOGGER.warn("Mapped metrics file is full, " + slotCapacity + " slots. Metrics beyond that are not mirrored.");
+            }
+            return -1;
+        } else {
+            slot = slotsInUse;
+        }
+        writeLabel(slot, canonical, kind, cumulative.getValueType(row));
+        if (slot == slotsInUse) {
+            slotsInUse++;
+            Fences.storeFence();
+            buffer.putInt(SLOTS_IN_USE_OFFSET, slotsInUse);
+        }
+        slotsOfKind[nameId] = slot;
+        slotNames[kind][nameId] = canonical;
+        slotKinds[slot] = (byte) kind;
+        slotNameIds[slot] = nameId;
+        return slot;
+    }
+
+    private void writeLabel(int slot, String canonical, int kind, ValueType valueType) {
+        byte[] name = canonical.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, labelLength - 8);
+        int at = HEADER_LENGTH + slot * labelLength;
+        buffer.putInt(at, nameLength);
+        buffer.put(at + 4, (byte) kind);
+        buffer.put(at + 5, (byte) valueType.ordinal());
+        buffer.put(at + LABEL_FLAGS_OFFSET, (byte) 0);
+        for (int i = 0; i < nameLength; i++) {
+            buffer.put(at + 8 + i, name[i]);
+        }
+        int values = valueRegionOffset + slot * SLOT_LENGTH;
+        for (int i = 0; i < SLOT_LENGTH; i += 8) {
+            buffer.putLong(values + i, 0);
+        }
+    }
+
+    /**
+     * Marks the label of a metric that is gone dead and frees its slot.
+     */
+    private void bury(int slot) {
+        buffer.put(HEADER_LENGTH + slot * labelLength + LABEL_FLAGS_OFFSET, LABEL_DEAD);
+        labelGeneration++;
+        buffer.putLong(LABEL_GENERATION_OFFSET, labelGeneration);
+        slotDead[slot] = true;
+        int kind = slotKinds[slot];
+        int nameId = slotNameIds[slot];
+        if (slots[kind][nameId] == slot) {
+            slots[kind][nameId] = -1;
+            slotNames[kind][nameId] = null;
+        }
+        freeSlots[freeSize] = slot;
+        freeSize++;
+    }
+
+    /**
+     * @return how many slots have ever been assigned, including dead ones waiting to be reused.
+     */
+    public int getSlotsInUse() {
+        return slotsInUse;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        buffer.force();
+        file.close();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a file written by {@link MappedMetricsFile}, typically from another process on the same host. Once mapped, refresh() is plain memory loads
+ * with no syscalls and nothing asked of the writing process.
+ *
+ * refresh() copies every slot into this reader when the writer is between updates, so the getters describe one consistent update. Labels are only
+ * read again when they are new or the writer has rewritten some label since the last refresh(). A slot whose metric is gone is reported by
+ * isDead(slot) until the writer hands the slot to another metric. Not thread safe.
+ *
+ * @author jonathan
+ */
+public final class MappedMetricsReader implements AutoCloseable {
+
+    private static final int MAX_ATTEMPTS = 1_000;
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int labelLength;
+    private final int valueRegionOffset;
+    private String[] names = new String[0];
+    private byte[] kinds = new byte[0];
+    private ValueType[] valueTypes = new ValueType[0];
+    private boolean[] dead = new boolean[0];
+    private long[] values = new long[0];
+    private double[] summaries = new double[0];
+    private int size;
+    private long labelGeneration = -1;
+    private long timestampMillis;
+
+    /**
+     * @throws IllegalArgumentException if path is not a metrics file or has an unsupported version.
+     */
+    public MappedMetricsReader(File path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        try {
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < MappedMetricsFile.HEADER_LENGTH || buffer.getInt(0) != MappedMetricsFile.MAGIC) {
+                throw new IllegalArgumentException(path + " is not a metrics file.");
+            }
+            int version = buffer.getInt(4);
+            if (version != MappedMetricsFile.VERSION) {
+                throw new IllegalArgumentException(path + " has unsupported version " + version + ".");
+            }
+            this.labelLength = buffer.getInt(MappedMetricsFile.LABEL_LENGTH_OFFSET);
+            this.valueRegionOffset = buffer.getInt(MappedMetricsFile.VALUE_REGION_OFFSET);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getWriterPid() {
+        return buffer.getInt(MappedMetricsFile.PID_OFFSET);
+    }
+
+    /**
+     * Copies the current values out of the file.
+     *
+     * @return false if the writer stayed mid update for every attempt, the previous values are kept.
+     * @throws IllegalStateException if a label holds a kind or value type this reader does not know.
+     */
+    public boolean refresh() {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long before = buffer.getLong(MappedMetricsFile.SEQUENCE_OFFSET);
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            Fences.loadFence();
+            long generation = buffer.getLong(MappedMetricsFile.LABEL_GENERATION_OFFSET);
+            int inUse = buffer.getInt(MappedMetricsFile.SLOTS_IN_USE_OFFSET);
+            ensureCapacity(inUse);
+            // labels are read inside the seqlock, a torn label is only an error if the sequence holds.
+            int invalid = -1;
+            for (int slot = generation == labelGeneration ? size : 0; slot < inUse; slot++) {
+                if (!readLabel(slot) && invalid < 0) {
+                    invalid = slot;
+                }
+            }
+            for (int slot = 0; slot < inUse; slot++) {
+                int at = valueRegionOffset + slot * MappedMetricsFile.SLOT_LENGTH;
+                values[slot] = buffer.getLong(at);
+                for (int i = 0; i < 7; i++) {
+                    summaries[slot * 7 + i] = buffer.getDouble(at + 8 + i * 8);
+                }
+            }
+            long timestamp = buffer.getLong(MappedMetricsFile.TIMESTAMP_OFFSET);
+            Fences.loadFence();
+            if (buffer.getLong(MappedMetricsFile.SEQUENCE_OFFSET) == before) {
+                if (invalid >= 0) {
+                    labelGeneration = -1;
+                    throw new IllegalStateException("Slot:" + invalid + " has an unknown kind or value type, or a name longer than its label.");
+                }
+                labelGeneration = generation;
+                size = inUse;
+                timestampMillis = timestamp;
+                return true;
+            }
+            labelGeneration = -1;
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int inUse) {
+        if (inUse > names.length) {
+            int length = Math.max(inUse, names.length * 2);
+            names = Arrays.copyOf(names, length);
+            kinds = Arrays.copyOf(kinds, length);
+            valueTypes = Arrays.copyOf(valueTypes, length);
+            dead = Arrays.copyOf(dead, length);
+            values = Arrays.copyOf(values, length);
+            summaries = Arrays.copyOf(summaries, length * 7);
+        }
+    }
+
+    /**
+     * @return false if the label holds a kind, value type or name length this reader does not accept.
+     */
+    private boolean readLabel(int slot) {
+        int at = MappedMetricsFile.HEADER_LENGTH + slot * labelLength;
+        int nameLength = buffer.getInt(at);
+        byte kind = buffer.get(at + 4);
+        int valueType = buffer.get(at + 5);
+        if (kind < MetricsSnapshot.COUNTER || kind > MetricsSnapshot.TIMER || valueType < 0 || valueType >= VALUE_TYPES.length
+            || nameLength < 0 || nameLength > labelLength - 8) {
+            return false;
+        }
+        kinds[slot] = kind;
+        valueTypes[slot] = VALUE_TYPES[valueType];
+        dead[slot] = (buffer.get(at + MappedMetricsFile.LABEL_FLAGS_OFFSET) & MappedMetricsFile.LABEL_DEAD) != 0;
+        byte[] name = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = buffer.get(at + 8 + i);
+        }
+        names[slot] = new String(name, StandardCharsets.UTF_8);
+        return true;
+    }
+
+    /**
+     * @return when the writer last updated the values seen by the last refresh().
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return true if the metric in slot is gone, its name and values are the last ones it had.
+     */
+    public boolean isDead(int slot) {
+        return dead[slot];
+    }
+
+    /**
+     * @return one of MetricsSnapshot.COUNTER, ATOMIC_COUNTER, BUCKETED_COUNTER or TIMER.
+     */
+    public byte getKind(int slot) {
+        return kinds[slot];
+    }
+
+    public ValueType getValueType(int slot) {
+        return valueTypes[slot];
+    }
+
+    /**
+     * @return the counters value, or the sample count for a timer.
+     */
+    public long getValue(int slot) {
+        return values[slot];
+    }
+
+    public double getMin(int slot) {
+        return summaries[slot * 7];
+    }
+
+    public double getMax(int slot) {
+        return summaries[slot * 7 + 1];
+    }
+
+    public double getMean(int slot) {
+        return summaries[slot * 7 + 2];
+    }
+
+    public double get50ThPercentile(int slot) {
+        return summaries[slot * 7 + 3];
+    }
+
+    public double get90ThPercentile(int slot) {
+        return summaries[slot * 7 + 4];
+    }
+
+    public double get95ThPercentile(int slot) {
+        return summaries[slot * 7 + 5];
+    }
+
+    public double get99ThPercentile(int slot) {
+        return summaries[slot * 7 + 6];
+    }
+
+    /**
+     * @return the slot of the live metric with this name and kind, or -1.
+     */
+    public int indexOf(String name, byte kind) {
+        for (int slot = 0; slot < size; slot++) {
+            if (!dead[slot] && kinds[slot] == kind && names[slot].equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
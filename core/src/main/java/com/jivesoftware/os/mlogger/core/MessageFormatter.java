@@ -23,8 +23,9 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 // contributors: lizongbo: proposed special treatment of array parameter values
 // J�rn Huxhorn: pointed out double[] omission, suggested deep array copy
@@ -85,6 +86,94 @@ final public class MessageFormatter {
     static final String DELIM_STR = "{}";
     private static final char ESCAPE_CHAR = '\\';
 
+    /**
+     * Builders that grew past this are not kept, so one huge message does not pin memory on every thread that logged it.
+     */
+    private static final int MAX_REUSED_CAPACITY = 4096;
+
+    private static final ThreadLocal<ReusableBuilder> BUILDER = ThreadLocal.withInitial(ReusableBuilder::new);
+
+    /**
+     * Compiled patterns in a direct mapped cache keyed by the identity of the pattern String. Log patterns are literals, so the same instance comes
+     * back on every call. A pattern is only compiled the second time its slot sees it in a row, see SIGHTINGS, so patterns built per call, which
+     * never come back, are scanned instead of compiled and do not evict the literals. A colliding pattern simply replaces the entry. Entries are
+     * immutable, so the unsynchronized arrays are safe to share.
+     */
+    private static final int TEMPLATE_CACHE_SIZE = 1024;
+    private static final Template[] TEMPLATES = new Template[TEMPLATE_CACHE_SIZE];
+    private static final String[] SIGHTINGS = new String[TEMPLATE_CACHE_SIZE];
+
+    private static final int ANCHOR = 0;
+    private static final int ESCAPED = 1;
+    private static final int DOUBLE_ESCAPED = 2;
+
+    /**
+     * Every "{}" of a pattern, found the same way the scanning loop finds them, with its escape handling resolved.
+     */
+    private static final class Template {
+
+        private final String pattern;
+        private final char[] chars;
+        /**
+         * (index of the '{' << 2) | ANCHOR, ESCAPED or DOUBLE_ESCAPED.
+         */
+        private final int[] delimiters;
+
+        private Template(String pattern) {
+            this.pattern = pattern;
+            this.chars = pattern.toCharArray();
+            int count = 0;
+            for (int j = pattern.indexOf(DELIM_STR); j != -1; j = pattern.indexOf(DELIM_STR, j + 2)) {
+                count++;
+            }
+            this.delimiters = new int[count];
+            int d = 0;
+            for (int j = pattern.indexOf(DELIM_STR); j != -1; j = pattern.indexOf(DELIM_STR, j + 2)) {
+                int kind = ANCHOR;
+                if (isEscapedDelimeter(pattern, j)) {
+                    kind = isDoubleEscaped(pattern, j) ? DOUBLE_ESCAPED : ESCAPED;
+                }
+                delimiters[d++] = (j << 2) | kind;
+            }
+        }
+    }
+
+    /**
+     * @return null when messagePattern is not compiled yet, the caller scans it instead.
+     */
+    private static Template template(String messagePattern) {
+        Template template = compiled(messagePattern);
+        if (template != null) {
+            return template;
+        }
+        int index = System.identityHashCode(messagePattern) & (TEMPLATE_CACHE_SIZE - 1);
+        if (SIGHTINGS[index] != messagePattern) {
+            SIGHTINGS[index] = messagePattern;
+            return null;
+        }
+        template = new Template(messagePattern);
+        TEMPLATES[index] = template;
+        return template;
+    }
+
+    /**
+     * Looks messagePattern up without counting as a sighting.
+     */
+    private static Template compiled(String messagePattern) {
+        Template template = TEMPLATES[System.identityHashCode(messagePattern) & (TEMPLATE_CACHE_SIZE - 1)];
+        return template != null && template.pattern == messagePattern ? template : null;
+    }
+
+    static boolean isCompiled(String messagePattern) {
+        return compiled(messagePattern) != null;
+    }
+
+    private static final class ReusableBuilder {
+
+        private StringBuilder builder = new StringBuilder(256);
+        private boolean inUse;
+    }
+
     /**
      * Performs single argument substitution for the 'messagePattern' passed as parameter.
      * <p>
@@ -130,6 +219,9 @@ final public class MessageFormatter {
      * Same principle as the {@link #format(String, Object)} and {@link #format(String, Object, Object)} methods except that any number of arguments can be
      * passed in an array.
      *
+     * The message is built in a StringBuilder reused by the calling thread, so the returned String is the only allocation for scalar arguments. An
+     * argument whose toString() formats another message on the same thread gets a fresh builder.
+     *
      * @param messagePattern The message pattern which will be parsed and formatted
      * @param argArray An array of arguments to be substituted in place of formatting anchors
      * @return The formatted message
@@ -142,9 +234,93 @@ final public class MessageFormatter {
         if (argArray == null) {
             return messagePattern;
         }
+        Template template = template(messagePattern);
+        if (template == null ? messagePattern.indexOf(DELIM_STR) == -1 : template.delimiters.length == 0) {
+            return messagePattern;
+        }
+        ReusableBuilder reusable = BUILDER.get();
+        if (reusable.inUse) {
+            StringBuilder sbuf = new StringBuilder(messagePattern.length() + 50);
+            formatTo(sbuf, messagePattern, template, argArray);
+            return sbuf.toString();
+        }
+        reusable.inUse = true;
+        try {
+            StringBuilder sbuf = reusable.builder;
+            sbuf.setLength(0);
+            formatTo(sbuf, messagePattern, template, argArray);
+            String formatted = sbuf.toString();
+            if (sbuf.capacity() > MAX_REUSED_CAPACITY) {
+                reusable.builder = new StringBuilder(256);
+            }
+            return formatted;
+        } finally {
+            reusable.inUse = false;
+        }
+    }
+
+    /**
+     * Appends the formatted message to sbuf without creating any intermediate Strings. For scalar arguments, that is CharSequences, boxed
+     * integral numbers, Booleans and Characters, this allocates nothing once sbuf has grown large enough. Cycle detection for nested Object[]
+     * arguments is only allocated when such an argument is met.
+     *
+     * The positions and escapes of the pattern's anchors are compiled and cached by the identity of the pattern the second time it is formatted,
+     * so a literal pattern is only scanned until then and its literal segments are afterwards copied as char ranges.
+     *
+     * @param sbuf receives the formatted message, a null messagePattern appends "null".
+     */
+    final public static void formatTo(final StringBuilder sbuf, final String messagePattern,
+            final Object... argArray) {
+        if (messagePattern == null || argArray == null) {
+            sbuf.append(messagePattern);
+            return;
+        }
+        formatTo(sbuf, messagePattern, template(messagePattern), argArray);
+    }
+
+    private static void formatTo(final StringBuilder sbuf, final String messagePattern, final Template template, final Object[] argArray) {
+        if (template == null) {
+            scanFormatTo(sbuf, messagePattern, argArray);
+            return;
+        }
+        char[] chars = template.chars;
+        int[] delimiters = template.delimiters;
+        int i = 0;
+        int L = 0;
+        Set<Object[]> seen = null;
+        for (int d = 0; d < delimiters.length && L < argArray.length; d++) {
+            int j = delimiters[d] >>> 2;
+            int kind = delimiters[d] & 3;
+            if (kind == ESCAPED) {
+                sbuf.append(chars, i, j - 1 - i);
+                sbuf.append(DELIM_START);
+                i = j + 1;
+            } else {
+                // a double escaped delimiter consumes one backward slash
+                int end = kind == DOUBLE_ESCAPED ? j - 1 : j;
+                sbuf.append(chars, i, end - i);
+                seen = deeplyAppendParameter(sbuf, argArray[L], seen);
+                L++;
+                i = j + 2;
+            }
+        }
+        // append the characters following the last {} pair.
+        sbuf.append(chars, i, chars.length - i);
+    }
+
+    /**
+     * The original scanning implementation of formatTo, which rescans the pattern on every call. Used for patterns that are not compiled yet, and
+     * the reference the compiled templates are tested against.
+     */
+    static void scanFormatTo(final StringBuilder sbuf, final String messagePattern,
+            final Object... argArray) {
+        if (messagePattern == null || argArray == null) {
+            sbuf.append(messagePattern);
+            return;
+        }
         int i = 0;
         int j;
-        StringBuffer sbuf = new StringBuffer(messagePattern.length() + 50);
+        Set<Object[]> seen = null;
 
         for (int L = 0; L < argArray.length; L++) {
 
@@ -152,39 +328,54 @@ final public class MessageFormatter {
 
             if (j == -1) {
                 // no more variables
-                if (i == 0) { // this is a simple string
-                    return messagePattern;
-                } else { // add the tail string which contains no variables and return
-                    // the result.
-                    sbuf.append(messagePattern.substring(i, messagePattern.length()));
-                    return sbuf.toString();
-                }
+                break;
             } else {
                 if (isEscapedDelimeter(messagePattern, j)) {
                     if (!isDoubleEscaped(messagePattern, j)) {
                         L--; // DELIM_START was escaped, thus should not be incremented
-                        sbuf.append(messagePattern.substring(i, j - 1));
+                        sbuf.append(messagePattern, i, j - 1);
                         sbuf.append(DELIM_START);
                         i = j + 1;
                     } else {
                         // The escape character preceding the delimiter start is
                         // itself escaped: "abc x:\\{}"
                         // we have to consume one backward slash
-                        sbuf.append(messagePattern.substring(i, j - 1));
-                        deeplyAppendParameter(sbuf, argArray[L], new HashMap());
+                        sbuf.append(messagePattern, i, j - 1);
+                        seen = deeplyAppendParameter(sbuf, argArray[L], seen);
                         i = j + 2;
                     }
                 } else {
                     // normal case
-                    sbuf.append(messagePattern.substring(i, j));
-                    deeplyAppendParameter(sbuf, argArray[L], new HashMap());
+                    sbuf.append(messagePattern, i, j);
+                    seen = deeplyAppendParameter(sbuf, argArray[L], seen);
                     i = j + 2;
                 }
             }
         }
         // append the characters following the last {} pair.
-        sbuf.append(messagePattern.substring(i, messagePattern.length()));
-        return sbuf.toString();
+        sbuf.append(messagePattern, i, messagePattern.length());
+    }
+
+    /**
+     * @return how many arguments messagePattern can consume, its "{}"s less the escaped ones.
+     */
+    static int countArgumentAnchors(String messagePattern) {
+        int count = 0;
+        Template template = compiled(messagePattern);
+        if (template == null) {
+            for (int j = messagePattern.indexOf(DELIM_STR); j != -1; j = messagePattern.indexOf(DELIM_STR, j + 2)) {
+                if (!isEscapedDelimeter(messagePattern, j) || isDoubleEscaped(messagePattern, j)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        for (int delimiter : template.delimiters) {
+            if ((delimiter & 3) != ESCAPED) {
+                count++;
+            }
+        }
+        return count;
     }
 
     final static boolean isEscapedDelimeter(String messagePattern,
@@ -212,11 +403,15 @@ final public class MessageFormatter {
     }
 
     // special treatment of array values was suggested by 'lizongbo'
-    private static void deeplyAppendParameter(StringBuffer sbuf, Object o,
-            Map seenMap) {
+    /**
+     * @param seen arrays being appended, by identity, null until an Object[] is met.
+     * @return seen, created if this call needed it.
+     */
+    private static Set<Object[]> deeplyAppendParameter(StringBuilder sbuf, Object o,
+            Set<Object[]> seen) {
         if (o == null) {
             sbuf.append("null");
-            return;
+            return seen;
         }
         if (!o.getClass().isArray()) {
             safeObjectAppend(sbuf, o);
@@ -240,15 +435,29 @@ final public class MessageFormatter {
             } else if (o instanceof double[]) {
                 doubleArrayAppend(sbuf, (double[]) o);
             } else {
-                objectArrayAppend(sbuf, (Object[]) o, seenMap);
+                if (seen == null) {
+                    seen = Collections.newSetFromMap(new IdentityHashMap<Object[], Boolean>());
+                }
+                objectArrayAppend(sbuf, (Object[]) o, seen);
             }
         }
+        return seen;
     }
 
-    private static void safeObjectAppend(StringBuffer sbuf, Object o) {
+    private static void safeObjectAppend(StringBuilder sbuf, Object o) {
         try {
-            String oAsString = o.toString();
-            sbuf.append(oAsString);
+            if (o instanceof CharSequence) {
+                sbuf.append((CharSequence) o);
+            } else if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte) {
+                sbuf.append(((Number) o).longValue());
+            } else if (o instanceof Boolean) {
+                sbuf.append(((Boolean) o).booleanValue());
+            } else if (o instanceof Character) {
+                sbuf.append(((Character) o).charValue());
+            } else {
+                String oAsString = o.toString();
+                sbuf.append(oAsString);
+            }
         } catch (Throwable t) {
             System.err
                     .println("SLF4J: Failed toString() invocation on an object of type ["
@@ -259,27 +468,26 @@ final public class MessageFormatter {
 
     }
 
-    private static void objectArrayAppend(StringBuffer sbuf, Object[] a,
-            Map seenMap) {
+    private static void objectArrayAppend(StringBuilder sbuf, Object[] a,
+            Set<Object[]> seen) {
         sbuf.append('[');
-        if (!seenMap.containsKey(a)) {
-            seenMap.put(a, null);
+        if (seen.add(a)) {
             final int len = a.length;
             for (int i = 0; i < len; i++) {
-                deeplyAppendParameter(sbuf, a[i], seenMap);
+                deeplyAppendParameter(sbuf, a[i], seen);
                 if (i != len - 1) {
                     sbuf.append(", ");
                 }
             }
             // allow repeats in siblings
-            seenMap.remove(a);
+            seen.remove(a);
         } else {
             sbuf.append("...");
         }
         sbuf.append(']');
     }
 
-    private static void booleanArrayAppend(StringBuffer sbuf, boolean[] a) {
+    private static void booleanArrayAppend(StringBuilder sbuf, boolean[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -291,7 +499,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void byteArrayAppend(StringBuffer sbuf, byte[] a) {
+    private static void byteArrayAppend(StringBuilder sbuf, byte[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -303,7 +511,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void charArrayAppend(StringBuffer sbuf, char[] a) {
+    private static void charArrayAppend(StringBuilder sbuf, char[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -315,7 +523,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void shortArrayAppend(StringBuffer sbuf, short[] a) {
+    private static void shortArrayAppend(StringBuilder sbuf, short[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -327,7 +535,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void intArrayAppend(StringBuffer sbuf, int[] a) {
+    private static void intArrayAppend(StringBuilder sbuf, int[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -339,7 +547,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void longArrayAppend(StringBuffer sbuf, long[] a) {
+    private static void longArrayAppend(StringBuilder sbuf, long[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -351,7 +559,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void floatArrayAppend(StringBuffer sbuf, float[] a) {
+    private static void floatArrayAppend(StringBuilder sbuf, float[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
@@ -363,7 +571,7 @@ final public class MessageFormatter {
         sbuf.append(']');
     }
 
-    private static void doubleArrayAppend(StringBuffer sbuf, double[] a) {
+    private static void doubleArrayAppend(StringBuilder sbuf, double[] a) {
         sbuf.append('[');
         final int len = a.length;
         for (int i = 0; i < len; i++) {
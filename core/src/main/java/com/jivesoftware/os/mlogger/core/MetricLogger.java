@@ -15,9 +15,17 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
+import java.util.Map;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.spi.ExtendedLogger;
 
 /**
  * This is an wrapper around a log4j logger that makes it as easy as possible for the developer to gather metrics.
@@ -26,6 +34,19 @@ import org.apache.logging.log4j.Logger;
  */
 public final class MetricLogger {
 
+    private static final String FQCN = MetricLogger.class.getName();
+
+    private static volatile LogDelivery defaultDelivery = LogDelivery.FORMATTED;
+
+    /**
+     * The LogDelivery used by MetricLoggers created after this call.
+     *
+     * @param delivery null NOT ok.
+     */
+    public static void setDefaultDelivery(LogDelivery delivery) {
+        defaultDelivery = delivery;
+    }
+
     final public CountersAndTimers countersAndTimers;
 
     final LazyCounter loggerErrorsCount;
@@ -38,12 +59,16 @@ public final class MetricLogger {
 
     final LazyCounter loggerInfosCount;
 
+    final LazyCounter loggerDroppedCount;
+
     final Logger logger;
 
     final String fullQualifiedClassName;
 
     final LoggerSummary loggerSummary;
 
+    private volatile LogDelivery delivery = defaultDelivery;
+
     MetricLogger(String fullQualifiedClassName, LoggerSummary loggerSummary) {
         this.fullQualifiedClassName = fullQualifiedClassName;
         countersAndTimers = CountersAndTimers.getOrCreate(fullQualifiedClassName);
@@ -53,9 +78,133 @@ public final class MetricLogger {
         loggerDebugsCount = new LazyCounter(countersAndTimers, ValueType.COUNT, "logged.debugs");
         loggerTracesCount = new LazyCounter(countersAndTimers, ValueType.COUNT, "logged.traces");
         loggerInfosCount = new LazyCounter(countersAndTimers, ValueType.COUNT, "logged.infos");
+        loggerDroppedCount = new LazyCounter(countersAndTimers, ValueType.COUNT, "logged.dropped");
         this.loggerSummary = loggerSummary;
     }
 
+    public LogDelivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * @param delivery null NOT ok.
+     */
+    public void setDelivery(LogDelivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Delivers a message the way getDelivery() says, the level has already been checked.
+     *
+     * @param args null for a plain message.
+     * @param t null is ok.
+     * @param lastN null if the level keeps no lastN.
+     * @param lastNWithThrown append t to the lastN entry.
+     */
+    private void log(Level level, String messagePattern, Object[] args, Throwable t, LoggerSummary.LastNMessages lastN, boolean lastNWithThrown) {
+        LogDelivery delivery = this.delivery;
+        long timestamp = lastN == null && delivery != LogDelivery.ASYNC ? 0 : loggerSummary.getClock().currentTimeMillis();
+        if (delivery == LogDelivery.ASYNC) {
+            if (!AsyncLogDispatcher.getShared().publish(this, level, messagePattern, args, t, lastN, lastNWithThrown, timestamp)) {
+                loggerDroppedCount.inc();
+            }
+            return;
+        }
+        deliver(level, messagePattern, args, t, lastN, lastNWithThrown, timestamp);
+    }
+
+    /**
+     * Does the LoggerSummary bookkeeping and the log4j call, on the calling thread or the {@link AsyncLogDispatcher} consumer.
+     */
+    void deliver(Level level, String messagePattern, Object[] args, Throwable t, LoggerSummary.LastNMessages lastN, boolean lastNWithThrown,
+        long timestamp) {
+        thrown(level, t);
+        if (delivery == LogDelivery.PARAMETERIZED && logger instanceof ExtendedLogger) {
+            Message message = args == null ? new SimpleMessage(messagePattern) : new ParameterizedMessage(messagePattern, args, t);
+            ((ExtendedLogger) logger).logIfEnabled(FQCN, level, null, message, t);
+            if (lastN != null) {
+                if (lastNWithThrown) {
+                    lastN.add(timestamp, messagePattern + (t != null ? " " + t.toString() : ""), null);
+                } else {
+                    lastN.add(timestamp, messagePattern, args);
+                }
+            }
+            return;
+        }
+        String msgStr = MessageFormatter.arrayFormat(messagePattern, args);
+        if (t == null) {
+            logger.log(level, msgStr);
+        } else {
+            logger.log(level, msgStr, t);
+        }
+        if (lastN != null) {
+            lastN.add(timestamp, lastNWithThrown ? msgStr + (t != null ? " " + t.toString() : "") : msgStr, null);
+        }
+    }
+
+    /**
+     * Delivers an event an ASYNC call published, on the {@link AsyncLogDispatcher} consumer. The log4j event carries the time, thread name,
+     * ThreadContext and location of the call instead of the consumers.
+     *
+     * @param location null if not captured.
+     */
+    void deliverPublished(Level level, String messagePattern, Object[] args, Throwable t, LoggerSummary.LastNMessages lastN, boolean lastNWithThrown,
+        long timestamp, String threadName, Map<String, String> contextMap, ThreadContext.ContextStack contextStack, StackTraceElement location) {
+        if (!(logger instanceof org.apache.logging.log4j.core.Logger)) {
+            deliver(level, messagePattern, args, t, lastN, lastNWithThrown, timestamp);
+            return;
+        }
+        thrown(level, t);
+        String msgStr = MessageFormatter.arrayFormat(messagePattern, args);
+        org.apache.logging.log4j.core.Logger coreLogger = (org.apache.logging.log4j.core.Logger) logger;
+        Message message = new SimpleMessage(msgStr);
+        if (coreLogger.isEnabled(level, null, message, t)) {
+            Log4jLogEvent event = new Log4jLogEvent(coreLogger.getName(), null, FQCN, level, message, t, contextMap, contextStack, threadName,
+                location, timestamp);
+            event.setIncludeLocation(location != null);
+            coreLogger.getContext().getConfiguration().getLoggerConfig(coreLogger.getName()).log(event);
+        }
+        if (lastN != null) {
+            lastN.add(timestamp, lastNWithThrown ? msgStr + (t != null ? " " + t.toString() : "") : msgStr, null);
+        }
+    }
+
+    private void thrown(Level level, Throwable t) {
+        if (t == null) {
+            return;
+        }
+        if (level == Level.ERROR) {
+            loggerSummary.errorThrown(t);
+        } else if (level == Level.WARN) {
+            loggerSummary.warnThrown(t);
+        } else if (level == Level.INFO) {
+            loggerSummary.infoThrown(t);
+        } else if (level == Level.DEBUG) {
+            loggerSummary.debugThrown(t);
+        } else {
+            loggerSummary.traceThrown(t);
+        }
+    }
+
+    /**
+     * Calls the suppliers an anchor of messagePattern will consume, in order.
+     */
+    private static Object[] supplied(String messagePattern, Supplier<?>[] argSuppliers) {
+        if (argSuppliers == null || messagePattern == null) {
+            return null;
+        }
+        Object[] args = new Object[Math.min(argSuppliers.length, MessageFormatter.countArgumentAnchors(messagePattern))];
+        for (int i = 0; i < args.length; i++) {
+            Supplier<?> supplier = argSuppliers[i];
+            try {
+                args[i] = supplier == null ? null : supplier.get();
+            } catch (RuntimeException e) {
+                args[i] = "[FAILED get(): " + e + "]";
+            }
+        }
+        return args;
+    }
+
     /**
      *
      * @return
@@ -83,7 +232,7 @@ public final class MetricLogger {
 
         loggerSummary.traces.increment();
         loggerTracesCount.inc();
-        logger.log(Level.TRACE, msg);
+        log(Level.TRACE, msg, null, null, null, false);
     }
 
     /**
@@ -106,8 +255,7 @@ public final class MetricLogger {
 
         loggerSummary.traces.increment();
         loggerTracesCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg);
-        logger.log(Level.TRACE, msgStr);
+        log(Level.TRACE, messagePattern, new Object[]{arg}, null, null, false);
     }
 
     /**
@@ -129,8 +277,7 @@ public final class MetricLogger {
         if (isTraceEnabled()) {
             loggerSummary.traces.increment();
             loggerTracesCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2);
-            logger.log(Level.TRACE, msgStr);
+            log(Level.TRACE, messagePattern, new Object[]{arg1, arg2}, null, null, false);
         }
     }
 
@@ -153,8 +300,7 @@ public final class MetricLogger {
         if (isTraceEnabled()) {
             loggerSummary.traces.increment();
             loggerTracesCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2, arg3);
-            logger.log(Level.TRACE, msgStr);
+            log(Level.TRACE, messagePattern, new Object[]{arg1, arg2, arg3}, null, null, false);
         }
     }
 
@@ -177,8 +323,7 @@ public final class MetricLogger {
         if (isTraceEnabled()) {
             loggerSummary.traces.increment();
             loggerTracesCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2, arg3, arg4);
-            logger.log(Level.TRACE, msgStr);
+            log(Level.TRACE, messagePattern, new Object[]{arg1, arg2, arg3, arg4}, null, null, false);
         }
     }
 
@@ -204,10 +349,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.traces.increment();
-        loggerSummary.traceThrown(t);
         loggerTracesCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.TRACE, msgStr, t);
+        log(Level.TRACE, messagePattern, argArray, t, null, false);
     }
 
     /**
@@ -231,8 +374,27 @@ public final class MetricLogger {
 
         loggerSummary.traces.increment();
         loggerTracesCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.TRACE, msgStr);
+        log(Level.TRACE, messagePattern, argArray, null, null, false);
+    }
+
+    /**
+     * Logs a message at Level.TRACE after having substituted the values of 'argSuppliers' into the 'messagePattern' at locations designated by
+     * '{}'s. A supplier is only called when Level.TRACE is enabled and an anchor consumes it.
+     *
+     * Example:
+     *      LOG.trace("request:{}", () -> serialize(request));
+     *
+     * @param messagePattern null is ok.
+     * @param argSuppliers null is ok, as is a null supplier.
+     */
+    public void trace(String messagePattern, Supplier<?>... argSuppliers) {
+        if (!isTraceEnabled()) {
+            return;
+        }
+
+        loggerSummary.traces.increment();
+        loggerTracesCount.inc();
+        log(Level.TRACE, messagePattern, supplied(messagePattern, argSuppliers), null, null, false);
     }
 
     /**
@@ -247,9 +409,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.traces.increment();
-        loggerSummary.traceThrown(t);
         loggerTracesCount.inc();
-        logger.log(Level.TRACE, msg, t);
+        log(Level.TRACE, msg, null, t, null, false);
     }
 
     /**
@@ -271,7 +432,7 @@ public final class MetricLogger {
 
         loggerSummary.debugs.increment();
         loggerDebugsCount.inc();
-        logger.log(Level.DEBUG, msg);
+        log(Level.DEBUG, msg, null, null, null, false);
     }
 
     /**
@@ -294,8 +455,7 @@ public final class MetricLogger {
 
         loggerSummary.debugs.increment();
         loggerDebugsCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg);
-        logger.log(Level.DEBUG, msgStr);
+        log(Level.DEBUG, messagePattern, new Object[]{arg}, null, null, false);
     }
 
     /**
@@ -317,8 +477,7 @@ public final class MetricLogger {
         if (logger.isDebugEnabled()) {
             loggerSummary.debugs.increment();
             loggerDebugsCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2);
-            logger.log(Level.DEBUG, msgStr);
+            log(Level.DEBUG, messagePattern, new Object[]{arg1, arg2}, null, null, false);
         }
     }
 
@@ -329,8 +488,7 @@ public final class MetricLogger {
         if (logger.isDebugEnabled()) {
             loggerSummary.debugs.increment();
             loggerDebugsCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2, arg3);
-            logger.log(Level.DEBUG, msgStr);
+            log(Level.DEBUG, messagePattern, new Object[]{arg1, arg2, arg3}, null, null, false);
         }
     }
 
@@ -341,8 +499,7 @@ public final class MetricLogger {
         if (logger.isDebugEnabled()) {
             loggerSummary.debugs.increment();
             loggerDebugsCount.inc();
-            String msgStr = MessageFormatter.format(messagePattern, arg1, arg2, arg3, arg4);
-            logger.log(Level.DEBUG, msgStr);
+            log(Level.DEBUG, messagePattern, new Object[]{arg1, arg2, arg3, arg4}, null, null, false);
         }
     }
 
@@ -368,10 +525,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.debugs.increment();
-        loggerSummary.debugThrown(t);
         loggerDebugsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.DEBUG, msgStr, t);
+        log(Level.DEBUG, messagePattern, argArray, t, null, false);
     }
 
     /**
@@ -395,8 +550,27 @@ public final class MetricLogger {
 
         loggerSummary.debugs.increment();
         loggerDebugsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.DEBUG, msgStr);
+        log(Level.DEBUG, messagePattern, argArray, null, null, false);
+    }
+
+    /**
+     * Logs a message at Level.DEBUG after having substituted the values of 'argSuppliers' into the 'messagePattern' at locations designated by
+     * '{}'s. A supplier is only called when Level.DEBUG is enabled and an anchor consumes it.
+     *
+     * Example:
+     *      LOG.debug("request:{}", () -> serialize(request));
+     *
+     * @param messagePattern null is ok.
+     * @param argSuppliers null is ok, as is a null supplier.
+     */
+    public void debug(String messagePattern, Supplier<?>... argSuppliers) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+
+        loggerSummary.debugs.increment();
+        loggerDebugsCount.inc();
+        log(Level.DEBUG, messagePattern, supplied(messagePattern, argSuppliers), null, null, false);
     }
 
     /**
@@ -411,9 +585,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.debugs.increment();
-        loggerSummary.debugThrown(t);
         loggerDebugsCount.inc();
-        logger.log(Level.DEBUG, msg, t);
+        log(Level.DEBUG, msg, null, t, null, false);
     }
 
     /**
@@ -435,8 +608,7 @@ public final class MetricLogger {
 
         loggerSummary.warns.increment();
         loggerWarnsCount.inc();
-        logger.log(Level.WARN, msg);
-        loggerSummary.lastNWarns.add(msg);
+        log(Level.WARN, msg, null, null, loggerSummary.warnMessages, false);
     }
 
     /**
@@ -459,9 +631,7 @@ public final class MetricLogger {
 
         loggerSummary.warns.increment();
         loggerWarnsCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg);
-        logger.log(Level.WARN, msgStr);
-        loggerSummary.lastNWarns.add(msgStr);
+        log(Level.WARN, messagePattern, new Object[]{arg}, null, loggerSummary.warnMessages, false);
     }
 
     /**
@@ -486,9 +656,7 @@ public final class MetricLogger {
 
         loggerSummary.warns.increment();
         loggerWarnsCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg1, arg2);
-        logger.log(Level.WARN, msgStr);
-        loggerSummary.lastNWarns.add(msgStr);
+        log(Level.WARN, messagePattern, new Object[]{arg1, arg2}, null, loggerSummary.warnMessages, false);
     }
 
     /**
@@ -513,11 +681,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.warns.increment();
-        loggerSummary.warnThrown(t);
         loggerWarnsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.WARN, msgStr, t);
-        loggerSummary.lastNWarns.add(msgStr);
+        log(Level.WARN, messagePattern, argArray, t, loggerSummary.warnMessages, false);
     }
 
     /**
@@ -541,9 +706,27 @@ public final class MetricLogger {
 
         loggerSummary.warns.increment();
         loggerWarnsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.WARN, msgStr);
-        loggerSummary.lastNWarns.add(msgStr);
+        log(Level.WARN, messagePattern, argArray, null, loggerSummary.warnMessages, false);
+    }
+
+    /**
+     * Logs a message at Level.WARN after having substituted the values of 'argSuppliers' into the 'messagePattern' at locations designated by
+     * '{}'s. A supplier is only called when Level.WARN is enabled and an anchor consumes it.
+     *
+     * Example:
+     *      LOG.warn("request:{}", () -> serialize(request));
+     *
+     * @param messagePattern null is ok.
+     * @param argSuppliers null is ok, as is a null supplier.
+     */
+    public void warn(String messagePattern, Supplier<?>... argSuppliers) {
+        if (!logger.isWarnEnabled()) {
+            return;
+        }
+
+        loggerSummary.warns.increment();
+        loggerWarnsCount.inc();
+        log(Level.WARN, messagePattern, supplied(messagePattern, argSuppliers), null, loggerSummary.warnMessages, false);
     }
 
     /**
@@ -558,10 +741,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.warns.increment();
-        loggerSummary.warnThrown(t);
         loggerWarnsCount.inc();
-        logger.log(Level.WARN, msg, t);
-        loggerSummary.lastNWarns.add(msg + (t != null ? " " + t.toString() : ""));
+        log(Level.WARN, msg, null, t, loggerSummary.warnMessages, true);
     }
 
     /**
@@ -583,8 +764,7 @@ public final class MetricLogger {
 
         loggerSummary.infos.increment();
         loggerInfosCount.inc();
-        logger.log(Level.INFO, msg);
-        loggerSummary.lastNInfos.add(msg);
+        log(Level.INFO, msg, null, null, loggerSummary.infoMessages, false);
     }
 
     /**
@@ -607,9 +787,7 @@ public final class MetricLogger {
 
         loggerSummary.infos.increment();
         loggerInfosCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg);
-        logger.log(Level.INFO, msgStr);
-        loggerSummary.lastNInfos.add(msgStr);
+        log(Level.INFO, messagePattern, new Object[]{arg}, null, loggerSummary.infoMessages, false);
     }
 
     /**
@@ -634,9 +812,7 @@ public final class MetricLogger {
 
         loggerSummary.infos.increment();
         loggerInfosCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg1, arg2);
-        logger.log(Level.INFO, msgStr);
-        loggerSummary.lastNInfos.add(msgStr);
+        log(Level.INFO, messagePattern, new Object[]{arg1, arg2}, null, loggerSummary.infoMessages, false);
     }
 
     /**
@@ -660,11 +836,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.infos.increment();
-        loggerSummary.infoThrown(t);
         loggerInfosCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.INFO, msgStr, t);
-        loggerSummary.lastNInfos.add(msgStr);
+        log(Level.INFO, messagePattern, argArray, t, loggerSummary.infoMessages, false);
     }
 
     /**
@@ -688,9 +861,27 @@ public final class MetricLogger {
 
         loggerSummary.infos.increment();
         loggerInfosCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.INFO, msgStr);
-        loggerSummary.lastNInfos.add(msgStr);
+        log(Level.INFO, messagePattern, argArray, null, loggerSummary.infoMessages, false);
+    }
+
+    /**
+     * Logs a message at Level.INFO after having substituted the values of 'argSuppliers' into the 'messagePattern' at locations designated by
+     * '{}'s. A supplier is only called when Level.INFO is enabled and an anchor consumes it.
+     *
+     * Example:
+     *      LOG.info("request:{}", () -> serialize(request));
+     *
+     * @param messagePattern null is ok.
+     * @param argSuppliers null is ok, as is a null supplier.
+     */
+    public void info(String messagePattern, Supplier<?>... argSuppliers) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+
+        loggerSummary.infos.increment();
+        loggerInfosCount.inc();
+        log(Level.INFO, messagePattern, supplied(messagePattern, argSuppliers), null, loggerSummary.infoMessages, false);
     }
 
     /**
@@ -705,10 +896,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.infos.increment();
-        loggerSummary.infoThrown(t);
         loggerInfosCount.inc();
-        logger.log(Level.INFO, messagePattern, t);
-        loggerSummary.lastNInfos.add(messagePattern + (t != null ? " " + t.toString() : ""));
+        log(Level.INFO, messagePattern, null, t, loggerSummary.infoMessages, true);
     }
 
     /**
@@ -730,8 +919,7 @@ public final class MetricLogger {
 
         loggerSummary.errors.increment();
         loggerErrorsCount.inc();
-        logger.log(Level.ERROR, msg);
-        loggerSummary.lastNErrors.add(msg);
+        log(Level.ERROR, msg, null, null, loggerSummary.errorMessages, false);
     }
 
     /**
@@ -754,9 +942,7 @@ public final class MetricLogger {
 
         loggerSummary.errors.increment();
         loggerErrorsCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg);
-        logger.log(Level.ERROR, msgStr);
-        loggerSummary.lastNErrors.add(msgStr);
+        log(Level.ERROR, messagePattern, new Object[]{arg}, null, loggerSummary.errorMessages, false);
     }
 
     /**
@@ -781,9 +967,7 @@ public final class MetricLogger {
 
         loggerSummary.errors.increment();
         loggerErrorsCount.inc();
-        String msgStr = MessageFormatter.format(messagePattern, arg1, arg2);
-        logger.log(Level.ERROR, msgStr);
-        loggerSummary.lastNErrors.add(msgStr);
+        log(Level.ERROR, messagePattern, new Object[]{arg1, arg2}, null, loggerSummary.errorMessages, false);
     }
 
     /**
@@ -808,11 +992,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.errors.increment();
-        loggerSummary.errorThrown(t);
         loggerErrorsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.ERROR, msgStr, t);
-        loggerSummary.lastNErrors.add(msgStr);
+        log(Level.ERROR, messagePattern, argArray, t, loggerSummary.errorMessages, false);
     }
 
     /**
@@ -836,9 +1017,27 @@ public final class MetricLogger {
 
         loggerSummary.errors.increment();
         loggerErrorsCount.inc();
-        String msgStr = MessageFormatter.arrayFormat(messagePattern, argArray);
-        logger.log(Level.ERROR, msgStr);
-        loggerSummary.lastNErrors.add(msgStr);
+        log(Level.ERROR, messagePattern, argArray, null, loggerSummary.errorMessages, false);
+    }
+
+    /**
+     * Logs a message at Level.ERROR after having substituted the values of 'argSuppliers' into the 'messagePattern' at locations designated by
+     * '{}'s. A supplier is only called when Level.ERROR is enabled and an anchor consumes it.
+     *
+     * Example:
+     *      LOG.error("request:{}", () -> serialize(request));
+     *
+     * @param messagePattern null is ok.
+     * @param argSuppliers null is ok, as is a null supplier.
+     */
+    public void error(String messagePattern, Supplier<?>... argSuppliers) {
+        if (!logger.isErrorEnabled()) {
+            return;
+        }
+
+        loggerSummary.errors.increment();
+        loggerErrorsCount.inc();
+        log(Level.ERROR, messagePattern, supplied(messagePattern, argSuppliers), null, loggerSummary.errorMessages, false);
     }
 
     /**
@@ -853,10 +1052,8 @@ public final class MetricLogger {
         }
 
         loggerSummary.errors.increment();
-        loggerSummary.errorThrown(t);
         loggerErrorsCount.inc();
-        logger.log(Level.ERROR, messagePattern, t);
-        loggerSummary.lastNErrors.add(messagePattern + (t != null ? " " + t.toString() : ""));
+        log(Level.ERROR, messagePattern, null, t, loggerSummary.errorMessages, true);
     }
 
     /**
@@ -889,8 +1086,7 @@ public final class MetricLogger {
     }
 
     /**
-     * Same as set(ValueType type, String name, long value) except it uses an AtomicLong. This is notably slower than the simple set(ValueType type, String
-     * name, long value) form. Only use if you absolutely have to have an accurate count.
+     * Same as set(ValueType type, String name, long value) except it uses an AtomicCounter. Both forms are exact.
      *
      * @param type null NOT ok.
      * @param name null NOT ok.
@@ -905,7 +1101,7 @@ public final class MetricLogger {
     }
 
     /**
-     * Increments a named long. Counts are not guaranteed to be exact.
+     * Increments a named long. Counts are exact.
      *
      * Metric names can be organized hierarchically by using the greater than separator.
      *For example:
@@ -932,7 +1128,7 @@ public final class MetricLogger {
     }
 
     /**
-     * Increments a named long by an amount. Counts are not guaranteed to be exact.
+     * Increments a named long by an amount. Counts are exact.
      *
      * Metric names can be organized hierarchically by using the greater than separator.
      * For example:
@@ -1158,6 +1354,77 @@ public final class MetricLogger {
         countersAndTimers.getTenantMetric(tenant).bucketedCounter(ValueType.COUNT, name, bucketSize, numberOfBuckets).dec(amount);
     }
 
+    /**
+     * Resolves a named counter once so that hot code paths can record against it without a lookup per call.
+     * The returned Counter is the same instance {@link #inc(String name)} and friends record against.
+     *
+     * Example:
+     *      private final Counter requests = LOG.counterHandle("requests");
+     *      ...
+     *      requests.inc();
+     *
+     * @param name null NOT ok.
+     * @return the counter bound to name.
+     */
+    public Counter counterHandle(String name) {
+        return countersAndTimers.counter(ValueType.COUNT, name);
+    }
+
+    public Counter counterHandle(String name, String tenant) {
+        return countersAndTimers.getTenantMetric(tenant).counter(ValueType.COUNT, name);
+    }
+
+    /**
+     * Same as {@link #counterHandle(String name)} but resolves the counter used by {@link #incAtomic(String name)}.
+     *
+     * @param name null NOT ok.
+     * @return the atomic counter bound to name.
+     */
+    public AtomicCounter atomicCounterHandle(String name) {
+        return countersAndTimers.atomicCounter(ValueType.COUNT, name);
+    }
+
+    public AtomicCounter atomicCounterHandle(String name, String tenant) {
+        return countersAndTimers.getTenantMetric(tenant).atomicCounter(ValueType.COUNT, name);
+    }
+
+    /**
+     * Same as {@link #counterHandle(String name)} but resolves the counter used by {@link #incBucket(String name, long bucketSize, int numberOfBuckets)}.
+     *
+     * @param name null NOT ok.
+     * @param bucketSize   the length of bucket, in milliseconds
+     * @param numberOfBuckets    the number of buckets to be looked back, when computing total count in all buckets
+     * @return the bucketed counter bound to name.
+     */
+    public BucketedCounter bucketHandle(String name, long bucketSize, int numberOfBuckets) {
+        return countersAndTimers.bucketedCounter(ValueType.COUNT, name, bucketSize, numberOfBuckets);
+    }
+
+    public BucketedCounter bucketHandle(String name, long bucketSize, int numberOfBuckets, String tenant) {
+        return countersAndTimers.getTenantMetric(tenant).bucketedCounter(ValueType.COUNT, name, bucketSize, numberOfBuckets);
+    }
+
+    /**
+     * Resolves the Timer {@link #stopTimer(String name)} records into. Callers measure the elapse themselves and hand it to {@link Timer#sample(long)}.
+     *
+     * Example:
+     *      private final Timer latency = LOG.timerHandle("latency");
+     *      ...
+     *      long start = System.currentTimeMillis();
+     *      ...
+     *      latency.sample(System.currentTimeMillis() - start);
+     *
+     * @param name null NOT ok.
+     * @return the timer bound to name.
+     */
+    public Timer timerHandle(String name) {
+        return countersAndTimers.timer(name, 5000);
+    }
+
+    public Timer timerHandle(String name, String tenant) {
+        return countersAndTimers.getTenantMetric(tenant).timer(name, 5000);
+    }
+
     /**
      * Starts a named timer. Each time a time is started and stopped its elapse is
      * added as a sample to org.apache.commons.math.stat.descriptive.SummaryStatistics;
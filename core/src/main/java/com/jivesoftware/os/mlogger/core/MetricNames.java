@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Process wide dictionary of metric names, for example "com.foo.Bar>tenant>acme>hits", to small dense int ids. Ids are reference counted: every
+ * id(name) must be matched by a release(id) once the metric behind it is gone, for example when its tenant is evicted, and an id whose count drops
+ * to 0 is handed to the next new name. That keeps the dictionary, and every exporter array indexed by id, bounded by the metrics that are alive.
+ *
+ * Because ids are reused, exporters that keep state per id also remember the name they computed it for and start over when
+ * {@link MetricsSnapshot#getName(int)} returns a different name for that id. Names are canonical, the same String instance for as long as the id is
+ * held, so that comparison is by identity.
+ *
+ * @author jonathan
+ */
+public final class MetricNames {
+
+    private static final HashMap<String, Integer> IDS = new HashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int[] references = new int[256];
+    private static int[] free = new int[16];
+    private static int freeSize;
+    private static int size;
+
+    private MetricNames() {
+    }
+
+    /**
+     * @return the id of name, assigning an id the first time a name is seen or after it has been released.
+     */
+    public static synchronized int id(String name) {
+        Integer id = IDS.get(name);
+        if (id == null) {
+            String[] got = names;
+            if (freeSize > 0) {
+                freeSize--;
+                id = free[freeSize];
+            } else {
+                id = size;
+                if (size == got.length) {
+                    got = Arrays.copyOf(got, size * 2);
+                    references = Arrays.copyOf(references, size * 2);
+                }
+                size++;
+            }
+            got[id] = name;
+            names = got;
+            IDS.put(name, id);
+        }
+        references[id]++;
+        return id;
+    }
+
+    /**
+     * Gives up one reference taken by id(name). Once every reference is given up the name is forgotten and its id may be reused.
+     */
+    public static synchronized void release(int id) {
+        String[] got = names;
+        if (id < 0 || id >= size || got[id] == null) {
+            return;
+        }
+        references[id]--;
+        if (references[id] == 0) {
+            IDS.remove(got[id]);
+            got[id] = null;
+            names = got;
+            if (freeSize == free.length) {
+                free = Arrays.copyOf(free, freeSize * 2);
+            }
+            free[freeSize] = id;
+            freeSize++;
+        }
+    }
+
+    /**
+     * @return the canonical name of id, null if no name currently has id.
+     */
+    public static String name(int id) {
+        String[] got = names;
+        return id >= 0 && id < got.length ? got[id] : null;
+    }
+
+    /**
+     * @return one more than the largest id handed out so far.
+     */
+    public static synchronized int size() {
+        return size;
+    }
+}
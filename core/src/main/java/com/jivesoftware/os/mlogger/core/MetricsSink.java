@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * Receives the per interval snapshots of an {@link IntervalReporter}.
+ *
+ * @author jonathan
+ */
+public interface MetricsSink {
+
+    /**
+     * @param interval only valid for the duration of the call, the reporter reuses it for the next interval.
+     * @throws Exception logged by the reporter, the remaining sinks still get the interval.
+     */
+    void report(MetricsSnapshot interval) throws Exception;
+}
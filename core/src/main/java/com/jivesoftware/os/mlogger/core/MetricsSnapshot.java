@@ -0,0 +1,311 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Arrays;
+
+/**
+ * Every metric in the registry captured into parallel primitive columns, one row per metric. A row holds the metrics name id and name (see
+ * {@link MetricNames}, a counter and a timer with the same key share a name), its kind, its {@link ValueType} and its value. Counter rows hold
+ * the counters value, timer rows hold the sample count since the last reset, see {@link Timer#getTotalSampleCount()}, as their value plus a
+ * histogram summary taken from one {@link TimerSnapshot}, the summary columns are NaN for every other kind.
+ *
+ * Timers in {@link TimerMode#HISTOGRAM} mode also contribute their cumulative bucket counts, see getBucketLength(row), so consumers can compute
+ * interval histograms and encode them compactly.
+ *
+ * Capturing again reuses the columns, they only grow when the registry has grown, so an exporter that keeps one MetricsSnapshot allocates next to
+ * nothing per capture. Not thread safe, meant to be owned by one exporter.
+ *
+ * @author jonathan
+ */
+public final class MetricsSnapshot {
+
+    public static final byte COUNTER = 0;
+    public static final byte ATOMIC_COUNTER = 1;
+    public static final byte BUCKETED_COUNTER = 2;
+    public static final byte TIMER = 3;
+
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+
+    private long timestampMillis;
+    private long intervalMillis;
+    private int size;
+    private int bucketsSize;
+    private long[] buckets = new long[0];
+    private int[] bucketOffsets = new int[0];
+    private int[] bucketLengths = new int[0];
+    private byte[] precisionBits = new byte[0];
+    private long[] sums = new long[0];
+    private int[] nameIds = new int[0];
+    private String[] names = new String[0];
+    private byte[] kinds = new byte[0];
+    private byte[] valueTypes = new byte[0];
+    private long[] values = new long[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private double[] means = new double[0];
+    private double[] p50s = new double[0];
+    private double[] p75s = new double[0];
+    private double[] p90s = new double[0];
+    private double[] p95s = new double[0];
+    private double[] p99s = new double[0];
+
+    /**
+     * Replaces the contents of this snapshot with every metric of every CountersAndTimers, including tenant specific metrics. Stamped with the
+     * default clock, see {@link CountersAndTimers#setDefaultClock(Clock)}.
+     *
+     * @return this
+     */
+    public MetricsSnapshot capture() {
+        clear(CountersAndTimers.getDefaultClock().currentTimeMillis(), 0);
+        for (CountersAndTimers countersAndTimers : CountersAndTimers.getAll()) {
+            countersAndTimers.captureInto(this);
+        }
+        return this;
+    }
+
+    /**
+     * Replaces the contents of this snapshot with the metrics of one CountersAndTimers, including its tenant specific metrics.
+     *
+     * @return this
+     */
+    public MetricsSnapshot capture(CountersAndTimers countersAndTimers) {
+        clear(countersAndTimers.getClock().currentTimeMillis(), 0);
+        countersAndTimers.captureInto(this);
+        return this;
+    }
+
+    void clear(long timestampMillis, long intervalMillis) {
+        this.timestampMillis = timestampMillis;
+        this.intervalMillis = intervalMillis;
+        size = 0;
+        bucketsSize = 0;
+    }
+
+    /**
+     * Adds a row named by the current name of nameId.
+     */
+    void addCounter(int nameId, byte kind, ValueType valueType, long value) {
+        addCounter(nameId, MetricNames.name(nameId), kind, valueType, value);
+    }
+
+    void addCounter(int nameId, String name, byte kind, ValueType valueType, long value) {
+        int row = nextRow();
+        nameIds[row] = nameId;
+        names[row] = name;
+        kinds[row] = kind;
+        valueTypes[row] = (byte) valueType.ordinal();
+        values[row] = value;
+        bucketLengths[row] = 0;
+        mins[row] = Double.NaN;
+        maxs[row] = Double.NaN;
+        means[row] = Double.NaN;
+        p50s[row] = Double.NaN;
+        p75s[row] = Double.NaN;
+        p90s[row] = Double.NaN;
+        p95s[row] = Double.NaN;
+        p99s[row] = Double.NaN;
+    }
+
+    /**
+     * Adds a row named by the current name of nameId.
+     */
+    int addTimer(int nameId, long sampleCount, TimerSnapshot snapshot) {
+        return addTimer(nameId, MetricNames.name(nameId), sampleCount, snapshot);
+    }
+
+    int addTimer(int nameId, String name, long sampleCount, TimerSnapshot snapshot) {
+        return addTimer(nameId, name, sampleCount, snapshot.getMin(), snapshot.getMax(), snapshot.getMean(), snapshot.get50ThPercentile(),
+            snapshot.get75ThPercentile(), snapshot.get90ThPercentile(), snapshot.get95ThPercentile(), snapshot.get99ThPercentile());
+    }
+
+    /**
+     * Adds a row named by the current name of nameId.
+     */
+    int addTimer(int nameId, long sampleCount, double min, double max, double mean, double p50, double p75, double p90, double p95, double p99) {
+        return addTimer(nameId, MetricNames.name(nameId), sampleCount, min, max, mean, p50, p75, p90, p95, p99);
+    }
+
+    int addTimer(int nameId, String name, long sampleCount, double min, double max, double mean, double p50, double p75, double p90, double p95,
+        double p99) {
+        int row = nextRow();
+        nameIds[row] = nameId;
+        names[row] = name;
+        kinds[row] = TIMER;
+        valueTypes[row] = (byte) ValueType.ELAPSE.ordinal();
+        values[row] = sampleCount;
+        bucketLengths[row] = 0;
+        mins[row] = min;
+        maxs[row] = max;
+        means[row] = mean;
+        p50s[row] = p50;
+        p75s[row] = p75;
+        p90s[row] = p90;
+        p95s[row] = p95;
+        p99s[row] = p99;
+        return row;
+    }
+
+    /**
+     * Reserves zeroed room for a timer rows bucket counts, which the caller then adds into getBuckets() starting at the returned offset.
+     */
+    int reserveBuckets(int row, int precisionBits, int numberOfBuckets, long sum) {
+        if (bucketsSize + numberOfBuckets > buckets.length) {
+            buckets = Arrays.copyOf(buckets, Math.max(bucketsSize + numberOfBuckets, buckets.length * 2));
+        }
+        int offset = bucketsSize;
+        Arrays.fill(buckets, offset, offset + numberOfBuckets, 0);
+        bucketsSize += numberOfBuckets;
+        bucketOffsets[row] = offset;
+        bucketLengths[row] = numberOfBuckets;
+        this.precisionBits[row] = (byte) precisionBits;
+        sums[row] = sum;
+        return offset;
+    }
+
+    long[] getBuckets() {
+        return buckets;
+    }
+
+    private int nextRow() {
+        if (size == nameIds.length) {
+            int capacity = Math.max(64, size * 2);
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            valueTypes = Arrays.copyOf(valueTypes, capacity);
+            values = Arrays.copyOf(values, capacity);
+            bucketOffsets = Arrays.copyOf(bucketOffsets, capacity);
+            bucketLengths = Arrays.copyOf(bucketLengths, capacity);
+            precisionBits = Arrays.copyOf(precisionBits, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            means = Arrays.copyOf(means, capacity);
+            p50s = Arrays.copyOf(p50s, capacity);
+            p75s = Arrays.copyOf(p75s, capacity);
+            p90s = Arrays.copyOf(p90s, capacity);
+            p95s = Arrays.copyOf(p95s, capacity);
+            p99s = Arrays.copyOf(p99s, capacity);
+        }
+        return size++;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return 0 for a capture of cumulative values, otherwise the length of the interval the values are deltas over, see {@link IntervalReporter}.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getNameId(int row) {
+        return nameIds[row];
+    }
+
+    /**
+     * @return the canonical name the row had when it was captured. Ids are reused once released, see {@link MetricNames}, so state kept per id should
+     * be recomputed when this is a different instance than last time.
+     */
+    public String getName(int row) {
+        return names[row];
+    }
+
+    /**
+     * @return one of COUNTER, ATOMIC_COUNTER, BUCKETED_COUNTER or TIMER.
+     */
+    public byte getKind(int row) {
+        return kinds[row];
+    }
+
+    public ValueType getValueType(int row) {
+        return VALUE_TYPES[valueTypes[row]];
+    }
+
+    /**
+     * @return the counters value, or the sample count for a timer.
+     */
+    public long getValue(int row) {
+        return values[row];
+    }
+
+    /**
+     * @return how many log-linear buckets the row carries, 0 unless the row is a timer in {@link TimerMode#HISTOGRAM} mode.
+     */
+    public int getBucketLength(int row) {
+        return bucketLengths[row];
+    }
+
+    /**
+     * @return the count of bucket index, laid out as a {@link LogLinearHistogram} with getPrecisionBits(row).
+     */
+    public long getBucket(int row, int index) {
+        return buckets[bucketOffsets[row] + index];
+    }
+
+    public int getPrecisionBits(int row) {
+        return precisionBits[row];
+    }
+
+    /**
+     * @return the sum of every sample, only meaningful when getBucketLength(row) is not 0.
+     */
+    public long getSum(int row) {
+        return sums[row];
+    }
+
+    public double getMin(int row) {
+        return mins[row];
+    }
+
+    public double getMax(int row) {
+        return maxs[row];
+    }
+
+    public double getMean(int row) {
+        return means[row];
+    }
+
+    public double get50ThPercentile(int row) {
+        return p50s[row];
+    }
+
+    public double get75ThPercentile(int row) {
+        return p75s[row];
+    }
+
+    public double get90ThPercentile(int row) {
+        return p90s[row];
+    }
+
+    public double get95ThPercentile(int row) {
+        return p95s[row];
+    }
+
+    public double get99ThPercentile(int row) {
+        return p99s[row];
+    }
+}
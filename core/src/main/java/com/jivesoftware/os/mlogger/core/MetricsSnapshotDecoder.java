@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the messages written by a {@link MetricsSnapshotEncoder} back into a {@link MetricsSnapshot}. Remembers the names sent earlier in the
+ * stream, so use one decoder per stream and call reset() whenever the encoder was reset.
+ *
+ * Decoded rows keep the encoder's name ids and this decoder's copy of each name, which stays the same String instance until the encoder sends a
+ * new name for the id. Nothing is interned into this processes {@link MetricNames}, so remote names neither pin local ids nor grow the per id
+ * arrays of local exporters. Feed a decoder's snapshots to exporters of their own rather than to ones that also see local snapshots, whose ids mean
+ * other names.
+ *
+ * @author jonathan
+ */
+public final class MetricsSnapshotDecoder {
+
+    /**
+     * Larger name ids are taken as a malformed message rather than grown into.
+     */
+    static final int MAX_NAME_ID = 1 << 24;
+
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+
+    private String[] names = new String[0];
+
+    /**
+     * Forgets the names sent so far.
+     */
+    public void reset() {
+        Arrays.fill(names, null);
+    }
+
+    /**
+     * @param in read from its position up to the end of one message.
+     * @param into cleared and filled with the decoded message.
+     * @return into
+     * @throws IllegalArgumentException if in does not hold a whole, well formed version 1 message or refers to a name that was never sent.
+     */
+    public MetricsSnapshot decode(ByteBuffer in, MetricsSnapshot into) {
+        try {
+            return decodeMessage(in, into);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated metrics snapshot.", e);
+        }
+    }
+
+    private MetricsSnapshot decodeMessage(ByteBuffer in, MetricsSnapshot into) {
+        if (in.get() != MetricsSnapshotEncoder.MAGIC_0 || in.get() != MetricsSnapshotEncoder.MAGIC_1) {
+            throw new IllegalArgumentException("Not a metrics snapshot.");
+        }
+        byte version = in.get();
+        if (version != MetricsSnapshotEncoder.VERSION) {
+            throw new IllegalArgumentException("Unsupported metrics snapshot version:" + version);
+        }
+        into.clear(readVarLong(in), readVarLong(in));
+
+        long newNames = readVarLong(in);
+        for (long i = 0; i < newNames; i++) {
+            long id = readVarLong(in);
+            if (id < 0 || id > MAX_NAME_ID) {
+                throw new IllegalArgumentException("Name id:" + id + " is out of range.");
+            }
+            long length = readVarLong(in);
+            if (length < 0 || length > in.remaining()) {
+                throw new IllegalArgumentException("Name length:" + length + " runs past the end of the message.");
+            }
+            byte[] name = new byte[(int) length];
+            in.get(name);
+            if (id >= names.length) {
+                names = Arrays.copyOf(names, (int) Math.max(id + 1, names.length * 2));
+            }
+            names[(int) id] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        long rows = readVarLong(in);
+        for (long r = 0; r < rows; r++) {
+            long id = readVarLong(in);
+            String name = id >= 0 && id < names.length ? names[(int) id] : null;
+            if (name == null) {
+                throw new IllegalArgumentException("Name id:" + id + " was never sent.");
+            }
+            int nameId = (int) id;
+            int flags = in.get() & 0xFF;
+            byte kind = (byte) (flags & 0x3);
+            ValueType valueType = VALUE_TYPES[(flags >>> 2) & 0x3];
+            long value = readZigZag(in);
+            if (kind != MetricsSnapshot.TIMER) {
+                into.addCounter(nameId, name, kind, valueType, value);
+                continue;
+            }
+            int row;
+            if ((flags & MetricsSnapshotEncoder.HAS_SUMMARY) != 0) {
+                row = into.addTimer(nameId, name, value, in.getDouble(), in.getDouble(), in.getDouble(),
+                    in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+            } else {
+                row = into.addTimer(nameId, name, value, Double.NaN, Double.NaN, Double.NaN,
+                    Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+            }
+            if ((flags & MetricsSnapshotEncoder.HAS_BUCKETS) != 0) {
+                readBuckets(in, into, row);
+            }
+        }
+        return into;
+    }
+
+    private static void readBuckets(ByteBuffer in, MetricsSnapshot into, int row) {
+        int precisionBits = in.get();
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("Precision bits:" + precisionBits + " is out of range.");
+        }
+        long length = readVarLong(in);
+        // the most buckets a LogLinearHistogram of precisionBits can have.
+        if (length < 0 || length > (long) (64 - precisionBits) << precisionBits) {
+            throw new IllegalArgumentException("Bucket length:" + length + " is out of range.");
+        }
+        long sum = readZigZag(in);
+        int offset = into.reserveBuckets(row, precisionBits, (int) length, sum);
+        long[] buckets = into.getBuckets();
+        long previous = 0;
+        long i = 0;
+        while (i < length) {
+            i += readVarLong(in);
+            long count = readVarLong(in);
+            if (i < 0 || count < 0 || count > length - i) {
+                throw new IllegalArgumentException("Bucket run at:" + i + " of:" + count + " runs past length:" + length);
+            }
+            for (long j = 0; j < count; j++) {
+                previous += readZigZag(in);
+                buckets[offset + (int) i] = previous;
+                i++;
+            }
+        }
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Varint is longer than 10 bytes.");
+            }
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readZigZag(ByteBuffer in) {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
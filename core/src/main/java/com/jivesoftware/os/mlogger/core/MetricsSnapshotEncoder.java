@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes {@link MetricsSnapshot}s, full or interval, into a compact binary stream read back by {@link MetricsSnapshotDecoder}. The encoder
+ * remembers which names it has already sent, so a name is written once per stream and every later message refers to it by id. Use one encoder per
+ * stream and call reset() when the stream starts over. An id given back to {@link MetricNames} and reused for another name is sent again with the
+ * new name.
+ *
+ * Format version 1, every integer is an unsigned LEB128 varint unless noted, signed values are zigzag encoded first:
+ * <pre>
+ * message  := 'M' 'S' version:byte timestampMillis intervalMillis nameCount name* rowCount row*
+ * name     := id length utf8Bytes
+ * row      := id flags:byte value:zigzag [summary] [buckets]
+ * flags    := kind (bits 0-1) | valueType (bits 2-3) | hasSummary (bit 4) | hasBuckets (bit 5)
+ * summary  := min max mean p50 p75 p90 p95 p99, each the 8 raw big endian bytes of a double
+ * buckets  := precisionBits:byte length sum:zigzag run*
+ * run      := zeros count delta:zigzag{count}
+ * </pre>
+ * A bucket run skips zeros empty buckets then carries count non empty buckets, each as the difference from the previous non empty bucket of the
+ * row. Runs repeat until length buckets have been described.
+ *
+ * @author jonathan
+ */
+public final class MetricsSnapshotEncoder {
+
+    public static final byte VERSION = 1;
+    static final byte MAGIC_0 = 'M';
+    static final byte MAGIC_1 = 'S';
+    static final int HAS_SUMMARY = 1 << 4;
+    static final int HAS_BUCKETS = 1 << 5;
+
+    private String[] sentNames = new String[0];
+    private int[] newIds = new int[64];
+    private byte[] buffer = new byte[4096];
+    private int position;
+
+    /**
+     * Forgets which names have been sent, the next message carries every name it uses.
+     */
+    public void reset() {
+        Arrays.fill(sentNames, null);
+    }
+
+    /**
+     * @return the encoded message, only valid until the next call to encode.
+     */
+    public ByteBuffer encode(MetricsSnapshot snapshot) {
+        position = 0;
+        writeByte(MAGIC_0);
+        writeByte(MAGIC_1);
+        writeByte(VERSION);
+        writeVarLong(snapshot.getTimestampMillis());
+        writeVarLong(snapshot.getIntervalMillis());
+
+        int size = snapshot.size();
+        int newNames = 0;
+        for (int row = 0; row < size; row++) {
+            int id = snapshot.getNameId(row);
+            String name = snapshot.getName(row);
+            if (sentName(id) != name) {
+                sentNames[id] = name;
+                if (newNames == newIds.length) {
+                    newIds = Arrays.copyOf(newIds, newNames * 2);
+                }
+                newIds[newNames++] = id;
+            }
+        }
+        writeVarLong(newNames);
+        for (int i = 0; i < newNames; i++) {
+            byte[] name = sentNames[newIds[i]].getBytes(StandardCharsets.UTF_8);
+            writeVarLong(newIds[i]);
+            writeVarLong(name.length);
+            writeBytes(name);
+        }
+
+        writeVarLong(size);
+        for (int row = 0; row < size; row++) {
+            byte kind = snapshot.getKind(row);
+            int buckets = snapshot.getBucketLength(row);
+            boolean hasSummary = kind == MetricsSnapshot.TIMER && !Double.isNaN(snapshot.getMean(row));
+            int flags = kind | (snapshot.getValueType(row).ordinal() << 2) | (hasSummary ? HAS_SUMMARY : 0) | (buckets > 0 ? HAS_BUCKETS : 0);
+            writeVarLong(snapshot.getNameId(row));
+            writeByte(flags);
+            writeZigZag(snapshot.getValue(row));
+            if (hasSummary) {
+                writeDouble(snapshot.getMin(row));
+                writeDouble(snapshot.getMax(row));
+                writeDouble(snapshot.getMean(row));
+                writeDouble(snapshot.get50ThPercentile(row));
+                writeDouble(snapshot.get75ThPercentile(row));
+                writeDouble(snapshot.get90ThPercentile(row));
+                writeDouble(snapshot.get95ThPercentile(row));
+                writeDouble(snapshot.get99ThPercentile(row));
+            }
+            if (buckets > 0) {
+                writeBuckets(snapshot, row, buckets);
+            }
+        }
+        return ByteBuffer.wrap(buffer, 0, position);
+    }
+
+    private String sentName(int id) {
+        if (id >= sentNames.length) {
+            sentNames = Arrays.copyOf(sentNames, Math.max(id + 1, sentNames.length * 2));
+        }
+        return sentNames[id];
+    }
+
+    private void writeBuckets(MetricsSnapshot snapshot, int row, int length) {
+        writeByte(snapshot.getPrecisionBits(row));
+        writeVarLong(length);
+        writeZigZag(snapshot.getSum(row));
+        long previous = 0;
+        int i = 0;
+        while (i < length) {
+            int zeros = 0;
+            while (i + zeros < length && snapshot.getBucket(row, i + zeros) == 0) {
+                zeros++;
+            }
+            int count = 0;
+            while (i + zeros + count < length && snapshot.getBucket(row, i + zeros + count) != 0) {
+                count++;
+            }
+            writeVarLong(zeros);
+            writeVarLong(count);
+            for (int j = i + zeros; j < i + zeros + count; j++) {
+                long bucket = snapshot.getBucket(row, j);
+                writeZigZag(bucket - previous);
+                previous = bucket;
+            }
+            i += zeros + count;
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(position + bytes, buffer.length * 2));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeDouble(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+}
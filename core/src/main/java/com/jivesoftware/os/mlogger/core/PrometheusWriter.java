@@ -0,0 +1,455 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams a {@link MetricsSnapshot} in the Prometheus text exposition format, version 0.0.4, into an OutputStream or a WritableByteChannel.
+ *
+ * A name such as "service>tenant>acme>requests" is split on '>' the same way the JMX object names are. The last part, sanitized, is the family
+ * name and the parts before it become the labels leaf0, leaf1 and so on, except a "tenant" part whose following part becomes the tenant label:
+ * requests_total{leaf0="service",tenant="acme"}. Counters of ValueType.COUNT are counter families named with a _total suffix, every other counter
+ * is a gauge named by the leaf alone. Timers are families named with a _timer suffix, summaries with the 0.5, 0.9, 0.95 and 0.99 quantiles, or
+ * histograms when they carry log-linear buckets and histograms are enabled. The suffixes keep a counter and a timer sharing a name, as logged by
+ * {@link CountAndTime}, in two families of their own.
+ *
+ * The encoded labels are cached by name id and the family by kind and name id, so a scrape in the steady state only formats numbers into a reused
+ * buffer. Rows are sorted by family because the format needs all the samples of a family together.
+ *
+ * @author jonathan
+ */
+public final class PrometheusWriter {
+
+    private static final byte[] TYPE = bytes("# TYPE ");
+    private static final byte[][] TYPES = {bytes(" counter\n"), bytes(" gauge\n"), bytes(" summary\n"), bytes(" histogram\n")};
+    private static final int COUNTER = 0;
+    private static final int GAUGE = 1;
+    private static final int SUMMARY = 2;
+    private static final int HISTOGRAM = 3;
+    private static final byte[][] QUANTILES = {bytes("quantile=\"0.5\""), bytes("quantile=\"0.9\""), bytes("quantile=\"0.95\""),
+        bytes("quantile=\"0.99\"")};
+    private static final byte[] LE = bytes("le=\"");
+    private static final byte[] INF = bytes("+Inf");
+    private static final byte[] NAN = bytes("NaN");
+    private static final byte[] BUCKET = bytes("_bucket");
+    private static final byte[] SUM = bytes("_sum");
+    private static final byte[] COUNT = bytes("_count");
+
+    private final String prefix;
+    private final boolean histograms;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private final LogLinearHistogram[] layouts = new LogLinearHistogram[17];
+    private final MetricsSnapshot capture = new MetricsSnapshot();
+    private final Map<String, Integer> familyIds = new HashMap<>();
+    private byte[][] families = new byte[0][];
+    private byte[][] labels = new byte[0][];
+    private final int[][] familyOfName = new int[4][0];
+    private String[] labelNames = new String[0];
+    private long[] order = new long[0];
+    int familyMisses;
+    private OutputStream out;
+    private WritableByteChannel channel;
+
+    public PrometheusWriter() {
+        this("", false);
+    }
+
+    /**
+     * @param prefix prepended to every family name, for example "myservice_".
+     * @param histograms write timers that carry buckets, see {@link TimerMode#HISTOGRAM}, as histogram families instead of summaries.
+     */
+    public PrometheusWriter(String prefix, boolean histograms) {
+        this(prefix, histograms, 64 * 1024);
+    }
+
+    public PrometheusWriter(String prefix, boolean histograms, int bufferSize) {
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("bufferSize must be at least 1024.");
+        }
+        this.prefix = prefix;
+        this.histograms = histograms;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Captures and writes every metric of every CountersAndTimers. Does not close out.
+     */
+    public synchronized void write(OutputStream out) throws IOException {
+        write(capture.capture(), out);
+    }
+
+    /**
+     * Captures and writes every metric of every CountersAndTimers. Does not close channel.
+     */
+    public synchronized void write(WritableByteChannel channel) throws IOException {
+        write(capture.capture(), channel);
+    }
+
+    public synchronized void write(MetricsSnapshot snapshot, OutputStream out) throws IOException {
+        this.out = out;
+        try {
+            write(snapshot);
+        } finally {
+            this.out = null;
+        }
+    }
+
+    public synchronized void write(MetricsSnapshot snapshot, WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            write(snapshot);
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    private void write(MetricsSnapshot snapshot) throws IOException {
+        buffer.clear();
+        int size = snapshot.size();
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+        }
+        for (int row = 0; row < size; row++) {
+            order[row] = ((long) family(snapshot, row) << 32) | row;
+        }
+        Arrays.sort(order, 0, size);
+
+        int currentFamily = -1;
+        for (int i = 0; i < size; i++) {
+            int family = (int) (order[i] >>> 32);
+            int row = (int) order[i];
+            int nameId = snapshot.getNameId(row);
+            int type = type(snapshot, row);
+            byte[] familyName = families[family >>> 2];
+            if (family != currentFamily) {
+                currentFamily = family;
+                put(TYPE);
+                put(familyName);
+                put(TYPES[type]);
+            }
+            byte[] label = labels[nameId];
+            if (type == SUMMARY) {
+                writeSummary(snapshot, row, familyName, label);
+            } else if (type == HISTOGRAM) {
+                writeHistogram(snapshot, row, familyName, label);
+            } else {
+                sample(familyName, null, label, null);
+                putLong(snapshot.getValue(row));
+                put((byte) '\n');
+            }
+        }
+        flush();
+    }
+
+    private void writeSummary(MetricsSnapshot snapshot, int row, byte[] familyName, byte[] label) throws IOException {
+        for (int q = 0; q < QUANTILES.length; q++) {
+            sample(familyName, null, label, QUANTILES[q]);
+            double value;
+            if (q == 0) {
+                value = snapshot.get50ThPercentile(row);
+            } else if (q == 1) {
+                value = snapshot.get90ThPercentile(row);
+            } else if (q == 2) {
+                value = snapshot.get95ThPercentile(row);
+            } else {
+                value = snapshot.get99ThPercentile(row);
+            }
+            putDouble(value);
+            put((byte) '\n');
+        }
+        long count = snapshot.getValue(row);
+        sample(familyName, SUM, label, null);
+        if (snapshot.getBucketLength(row) != 0) {
+            putLong(snapshot.getSum(row));
+        } else {
+            putDouble(count == 0 ? 0d : snapshot.getMean(row) * count);
+        }
+        put((byte) '\n');
+        sample(familyName, COUNT, label, null);
+        putLong(count);
+        put((byte) '\n');
+    }
+
+    private void writeHistogram(MetricsSnapshot snapshot, int row, byte[] familyName, byte[] label) throws IOException {
+        LogLinearHistogram layout = layout(snapshot.getPrecisionBits(row));
+        long cumulative = 0;
+        for (int index = 0; index < snapshot.getBucketLength(row); index++) {
+            long count = snapshot.getBucket(row, index);
+            if (count != 0) {
+                cumulative += count;
+                sample(familyName, BUCKET, label, LE);
+                putLong(layout.highestEquivalentValue(index));
+                put((byte) '"');
+                put((byte) '}');
+                put((byte) ' ');
+                putLong(cumulative);
+                put((byte) '\n');
+            }
+        }
+        sample(familyName, BUCKET, label, LE);
+        put(INF);
+        put((byte) '"');
+        put((byte) '}');
+        put((byte) ' ');
+        putLong(cumulative);
+        put((byte) '\n');
+        sample(familyName, SUM, label, null);
+        putLong(snapshot.getSum(row));
+        put((byte) '\n');
+        sample(familyName, COUNT, label, null);
+        putLong(cumulative);
+        put((byte) '\n');
+    }
+
+    /**
+     * Writes name{labels,extra} followed by a space. An extra label starting with le=" is left open for the caller to finish.
+     */
+    private void sample(byte[] familyName, byte[] suffix, byte[] label, byte[] extra) throws IOException {
+        put(familyName);
+        if (suffix != null) {
+            put(suffix);
+        }
+        if (label.length != 0 || extra != null) {
+            put((byte) '{');
+            put(label);
+            if (extra != null) {
+                if (label.length != 0) {
+                    put((byte) ',');
+                }
+                put(extra);
+                if (extra == LE) {
+                    return;
+                }
+            }
+            put((byte) '}');
+        }
+        put((byte) ' ');
+    }
+
+    private int type(MetricsSnapshot snapshot, int row) {
+        byte kind = snapshot.getKind(row);
+        if (kind == MetricsSnapshot.TIMER) {
+            return histograms && snapshot.getBucketLength(row) != 0 ? HISTOGRAM : SUMMARY;
+        }
+        if (kind != MetricsSnapshot.BUCKETED_COUNTER && snapshot.getValueType(row) == ValueType.COUNT) {
+            return COUNTER;
+        }
+        return GAUGE;
+    }
+
+    private int family(MetricsSnapshot snapshot, int row) {
+        int nameId = snapshot.getNameId(row);
+        if (nameId >= labels.length) {
+            int had = labels.length;
+            int capacity = Math.max(nameId + 1, had * 2);
+            for (int kind = 0; kind < familyOfName.length; kind++) {
+                familyOfName[kind] = Arrays.copyOf(familyOfName[kind], capacity);
+                Arrays.fill(familyOfName[kind], had, capacity, -1);
+            }
+            labels = Arrays.copyOf(labels, capacity);
+            labelNames = Arrays.copyOf(labelNames, capacity);
+        }
+        String name = snapshot.getName(row);
+        if (labelNames[nameId] != name) {
+            labels[nameId] = bytes(label(name));
+            labelNames[nameId] = name;
+            for (int[] ofKind : familyOfName) {
+                ofKind[nameId] = -1;
+            }
+        }
+        int[] ofKind = familyOfName[snapshot.getKind(row)];
+        int type = type(snapshot, row);
+        int family = ofKind[nameId];
+        if (family >= 0 && (family & 3) == type) {
+            return family;
+        }
+
+        familyMisses++;
+        String[] parts = name.split(">");
+        String familyName = sanitize(prefix + parts[parts.length - 1]);
+        String suffix = type == COUNTER ? "_total" : type == GAUGE ? "" : "_timer";
+        if (!familyName.endsWith(suffix)) {
+            familyName += suffix;
+        }
+        Integer id = familyIds.get(type + familyName);
+        if (id == null) {
+            id = familyIds.size() << 2 | type;
+            familyIds.put(type + familyName, id);
+            int index = id >>> 2;
+            if (index >= families.length) {
+                families = Arrays.copyOf(families, Math.max(index + 1, families.length * 2));
+            }
+            families[index] = bytes(familyName);
+        }
+        ofKind[nameId] = id;
+        return id;
+    }
+
+    private static String label(String name) {
+        String[] parts = name.split(">");
+        StringBuilder label = new StringBuilder();
+        int leaf = 0;
+        int i = 0;
+        while (i < parts.length - 1) {
+            if (label.length() != 0) {
+                label.append(',');
+            }
+            if (parts[i].equals("tenant") && i + 1 < parts.length - 1) {
+                i++;
+                label.append("tenant=\"");
+            } else {
+                label.append("leaf").append(leaf++).append("=\"");
+            }
+            escape(parts[i], label);
+            label.append('"');
+            i++;
+        }
+        return label.toString();
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || (i > 0 && c >= '0' && c <= '9');
+            if (i == 0 && c >= '0' && c <= '9') {
+                sb.append('_');
+                valid = true;
+            }
+            sb.append(valid ? c : '_');
+        }
+        return sb.length() == 0 ? "_" : sb.toString();
+    }
+
+    private static void escape(String value, StringBuilder to) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                to.append('\\').append(c);
+            } else if (c == '\n') {
+                to.append("\\n");
+            } else {
+                to.append(c);
+            }
+        }
+    }
+
+    private LogLinearHistogram layout(int precisionBits) {
+        LogLinearHistogram layout = layouts[precisionBits];
+        if (layout == null) {
+            layout = new LogLinearHistogram(precisionBits, 1L << precisionBits);
+            layouts[precisionBits] = layout;
+        }
+        return layout;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(bytes.length - offset, buffer.remaining());
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            put(bytes(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int at = digits.length;
+        do {
+            digits[--at] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = at; i < digits.length; i++) {
+            put(digits[i]);
+        }
+    }
+
+    /**
+     * Integral values and values with at most three decimals, which covers the bucket midpoints of every histogram, are formatted without
+     * allocating. Anything else falls back to Double.toString.
+     */
+    private void putDouble(double value) throws IOException {
+        if (Double.isNaN(value)) {
+            put(NAN);
+        } else if (Double.isInfinite(value)) {
+            put(value > 0 ? INF : bytes("-Inf"));
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            putLong((long) value);
+        } else if (value * 1000 == Math.rint(value * 1000) && Math.abs(value) < 1e12) {
+            long thousandths = (long) (value * 1000);
+            if (thousandths < 0) {
+                put((byte) '-');
+                thousandths = -thousandths;
+            }
+            putLong(thousandths / 1000);
+            put((byte) '.');
+            long fraction = thousandths % 1000;
+            int places = 3;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                places--;
+            }
+            for (int i = places - 1; i >= 0; i--) {
+                long divisor = i == 2 ? 100 : i == 1 ? 10 : 1;
+                put((byte) ('0' + fraction / divisor % 10));
+            }
+        } else {
+            put(bytes(Double.toString(value)));
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        if (out != null) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
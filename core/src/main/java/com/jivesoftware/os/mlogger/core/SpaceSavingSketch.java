@@ -0,0 +1,513 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Space-Saving top-K sketch (Metwally, Agrawal and El Abbadi). Monitors at most capacity items in an indexed min-heap of counts. An item that is
+ * not monitored replaces the item with the smallest count and inherits that count as its error, so every reported count over estimates the true
+ * count by at most its error and any item whose true count exceeds total / capacity is guaranteed to be monitored.
+ *
+ * The count of the kth largest item is cached as the heavy hitter threshold. It is only recomputed, with a selection rather than a sort, after an
+ * add has moved some count across it, and the heavy hitters are only republished when one joins or leaves them. Offers synchronize on the sketch
+ * and refresh at most once every capacity offers, so hot paths should record(item) instead. Records are buffered in stripes chosen by thread id and
+ * a stripe is applied as one batch once it holds BATCH_SIZE records, once its oldest record is MAX_BATCH_AGE_MILLIS old, or when topK() or flush()
+ * is called, so records made by threads that never record again are not stranded. isHeavyHitter(item) answers from the published heavy hitters
+ * without taking a lock. Until the first refresh no item is a heavy hitter. The evicted callback always runs after the locks have been released.
+ *
+ * @author jonathan
+ */
+public final class SpaceSavingSketch {
+
+    static final int BATCH_SIZE = 64;
+    static final long MAX_BATCH_AGE_MILLIS = 1_000;
+
+    private static final String[] NO_HEAVY_HITTERS = new String[0];
+
+    private final int k;
+    private final String[] items;
+    private final long[] counts;
+    private final long[] errors;
+    /**
+     * Whether each heap slot's item is in the published heavyHitters, moved along with the item.
+     */
+    private final boolean[] heavy;
+    private final HashMap<String, Integer> index;
+    private final Consumer<String> evicted;
+    private final Clock clock;
+    private final long[] scratch;
+    private final Buffer[] buffers;
+    private int size;
+    private int offersSinceThreshold;
+    private String offeredDropped;
+    private boolean thresholdCrossed = true;
+    private boolean heavyHitterDropped;
+    private volatile long threshold = Long.MAX_VALUE;
+    /**
+     * Open addressed, a power of two at least twice the number of heavy hitters, never modified once published.
+     */
+    private volatile String[] heavyHitters = NO_HEAVY_HITTERS;
+
+    /**
+     * @param k how many heavy hitters to report.
+     * @param capacity how many items to monitor, at least k. More capacity tightens the error bounds.
+     * @param evicted told about every item that stops being monitored, called on the offering thread after the sketchs lock is released.
+     */
+    public SpaceSavingSketch(int k, int capacity, Consumer<String> evicted) {
+        this(k, capacity, evicted, SystemClock.INSTANCE);
+    }
+
+    SpaceSavingSketch(int k, int capacity, Consumer<String> evicted, Clock clock) {
+        if (k < 1 || capacity < k) {
+            throw new IllegalArgumentException("k must be at least 1 and capacity must be at least k.");
+        }
+        this.k = k;
+        this.items = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heavy = new boolean[capacity];
+        this.index = new HashMap<>(capacity * 2);
+        this.evicted = evicted;
+        this.clock = clock;
+        this.scratch = new long[capacity];
+        this.buffers = new Buffer[StripedLong.DEFAULT_STRIPES];
+        for (int b = 0; b < buffers.length; b++) {
+            buffers[b] = new Buffer();
+        }
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getCapacity() {
+        return items.length;
+    }
+
+    /**
+     * @return the estimated count of item including this offer.
+     */
+    public long offer(String item, long amount) {
+        long count;
+        String dropped;
+        synchronized (this) {
+            count = add(item, amount);
+            dropped = offeredDropped;
+            offeredDropped = null;
+            offersSinceThreshold++;
+            if (offersSinceThreshold >= items.length) {
+                offersSinceThreshold = 0;
+                refreshThresholdIfCrossed();
+            }
+        }
+        if (dropped != null) {
+            evicted.accept(dropped);
+        }
+        return count;
+    }
+
+    /**
+     * Counts one occurrence of item in the calling threads stripe. A stripe is applied to the sketch once it holds BATCH_SIZE records or its oldest
+     * record is MAX_BATCH_AGE_MILLIS old, so the sketch's lock is taken about once per batch and counts lag by at most a batch or that age per stripe.
+     */
+    public void record(String item) {
+        Buffer buffer = buffers[(int) Thread.currentThread().getId() & (buffers.length - 1)];
+        List<String> dropped = null;
+        synchronized (buffer) {
+            long now = clock.currentTimeMillis();
+            if (!buffer.add(item, now)) {
+                dropped = apply(buffer, null);
+                buffer.add(item, now);
+            }
+            if (buffer.records >= BATCH_SIZE || now - buffer.oldest >= MAX_BATCH_AGE_MILLIS) {
+                dropped = apply(buffer, dropped);
+            }
+        }
+        evicted(dropped);
+    }
+
+    /**
+     * Applies every stripe's buffered records.
+     */
+    public void flush() {
+        List<String> dropped = null;
+        for (Buffer buffer : buffers) {
+            synchronized (buffer) {
+                if (buffer.size > 0) {
+                    dropped = apply(buffer, dropped);
+                }
+            }
+        }
+        evicted(dropped);
+    }
+
+    /**
+     * Applies buffer to the sketch and clears it. Holding the buffer's lock.
+     *
+     * @return dropped plus the items this batch dropped.
+     */
+    private List<String> apply(Buffer buffer, List<String> dropped) {
+        synchronized (this) {
+            for (int b = 0; b < buffer.size; b++) {
+                add(buffer.items[b], buffer.amounts[b]);
+                if (offeredDropped != null) {
+                    if (dropped == null) {
+                        dropped = new ArrayList<>();
+                    }
+                    dropped.add(offeredDropped);
+                    offeredDropped = null;
+                }
+            }
+            offersSinceThreshold = 0;
+            refreshThresholdIfCrossed();
+        }
+        buffer.clear();
+        return dropped;
+    }
+
+    private void evicted(List<String> dropped) {
+        if (dropped != null) {
+            for (String item : dropped) {
+                evicted.accept(item);
+            }
+        }
+    }
+
+    /**
+     * @return true if item was one of the top k when the sketch last refreshed its threshold. Does not lock.
+     */
+    public boolean isHeavyHitter(String item) {
+        String[] table = heavyHitters;
+        if (table.length == 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(item, mask); table[i] != null; i = (i + 1) & mask) {
+            if (table[i].equals(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int slot(String item, int mask) {
+        int h = item.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Adds amount to item, leaving an item that lost its slot in offeredDropped. Holding the lock.
+     *
+     * @return the estimated count of item.
+     */
+    private long add(String item, long amount) {
+        Integer at = index.get(item);
+        int i;
+        long before;
+        if (at != null) {
+            i = at;
+            before = counts[i];
+            counts[i] += amount;
+        } else if (size < items.length) {
+            i = size;
+            size++;
+            before = 0;
+            items[i] = item;
+            counts[i] = amount;
+            errors[i] = 0;
+            heavy[i] = false;
+            index.put(item, i);
+            siftUp(i);
+            i = index.get(item);
+        } else {
+            i = 0;
+            String old = items[0];
+            index.remove(old);
+            before = counts[0];
+            errors[0] = counts[0];
+            counts[0] += amount;
+            items[0] = item;
+            index.put(item, 0);
+            offeredDropped = old;
+            if (heavy[0]) {
+                heavy[0] = false;
+                heavyHitterDropped = true;
+            }
+        }
+        long count = counts[i];
+        long t = threshold;
+        if (t == Long.MAX_VALUE || Math.min(before, count) <= t && Math.max(before, count) >= t) {
+            thresholdCrossed = true;
+        }
+        siftDown(i);
+        return count;
+    }
+
+    /**
+     * @return the count an item needs to currently be one of the top k. Long.MAX_VALUE until the sketch has refreshed its threshold once.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    private void refreshThresholdIfCrossed() {
+        if (thresholdCrossed || heavyHitterDropped) {
+            refreshThreshold();
+        }
+    }
+
+    /**
+     * Holding the lock.
+     */
+    private void refreshThreshold() {
+        thresholdCrossed = false;
+        if (size == 0) {
+            heavyHitterDropped = false;
+            threshold = Long.MAX_VALUE;
+            heavyHitters = NO_HEAVY_HITTERS;
+            return;
+        }
+        System.arraycopy(counts, 0, scratch, 0, size);
+        long kth = select(scratch, size, Math.max(0, size - k));
+        boolean changed = heavyHitterDropped;
+        heavyHitterDropped = false;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            boolean now = counts[i] >= kth;
+            changed |= now != heavy[i];
+            heavy[i] = now;
+            if (now) {
+                count++;
+            }
+        }
+        threshold = kth;
+        if (changed) {
+            int length = Integer.highestOneBit(count) << 2;
+            String[] table = new String[length];
+            int mask = length - 1;
+            for (int i = 0; i < size; i++) {
+                if (heavy[i]) {
+                    int j = slot(items[i], mask);
+                    while (table[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    table[j] = items[i];
+                }
+            }
+            heavyHitters = table;
+        }
+    }
+
+    /**
+     * Quickselect, reorders the first length values.
+     *
+     * @return the value that would be at rank if the first length values were sorted ascending.
+     */
+    private static long select(long[] values, int length, int rank) {
+        int lo = 0;
+        int hi = length - 1;
+        while (lo < hi) {
+            long pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (rank <= j) {
+                hi = j;
+            } else if (rank >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return values[rank];
+    }
+
+    /**
+     * Applies every stripe's buffered records first.
+     *
+     * @return at most k heavy hitters, largest count first.
+     */
+    public List<Estimate> topK() {
+        flush();
+        synchronized (this) {
+            return sortedTopK();
+        }
+    }
+
+    private List<Estimate> sortedTopK() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        List<Estimate> top = new ArrayList<>(Math.min(k, size));
+        for (int i = 0; i < size && i < k; i++) {
+            int j = order[i];
+            top.add(new Estimate(items[j], counts[j], errors[j]));
+        }
+        return top;
+    }
+
+    /**
+     * Forgets every item, telling evicted about each. Records still buffered by other threads are applied with their next batch.
+     */
+    public void clear() {
+        String[] dropped;
+        synchronized (this) {
+            dropped = Arrays.copyOf(items, size);
+            Arrays.fill(items, null);
+            Arrays.fill(heavy, false);
+            index.clear();
+            size = 0;
+            offersSinceThreshold = 0;
+            refreshThreshold();
+        }
+        for (String item : dropped) {
+            evicted.accept(item);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = (i << 1) + 1;
+            if (left >= size) {
+                break;
+            }
+            int right = left + 1;
+            int smallest = right < size && counts[right] < counts[left] ? right : left;
+            if (counts[i] <= counts[smallest]) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String item = items[a];
+        long count = counts[a];
+        long error = errors[a];
+        boolean wasHeavy = heavy[a];
+        items[a] = items[b];
+        counts[a] = counts[b];
+        errors[a] = errors[b];
+        heavy[a] = heavy[b];
+        items[b] = item;
+        counts[b] = count;
+        errors[b] = error;
+        heavy[b] = wasHeavy;
+        index.put(items[a], a);
+        index.put(items[b], b);
+    }
+
+    /**
+     * An items estimated count. The true count is between count - error and count.
+     */
+    public static final class Estimate {
+
+        private final String item;
+        private final long count;
+        private final long error;
+
+        public Estimate(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    private static final class Buffer {
+
+        private final String[] items = new String[BATCH_SIZE];
+        private final long[] amounts = new long[BATCH_SIZE];
+        private int size;
+        private int records;
+        private long oldest;
+
+        /**
+         * @param now stamped as the oldest record if the buffer is empty.
+         * @return false if the buffer has no room left for another distinct item.
+         */
+        private boolean add(String item, long now) {
+            if (records == 0) {
+                oldest = now;
+            }
+            for (int i = 0; i < size; i++) {
+                if (items[i] == item || items[i].equals(item)) {
+                    amounts[i]++;
+                    records++;
+                    return true;
+                }
+            }
+            if (size == items.length) {
+                return false;
+            }
+            items[size] = item;
+            amounts[size] = 1;
+            size++;
+            records++;
+            return true;
+        }
+
+        private void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+            records = 0;
+        }
+    }
+}
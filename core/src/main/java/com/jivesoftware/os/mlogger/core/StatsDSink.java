@@ -0,0 +1,293 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MetricsSink} that pushes each interval to a StatsD compatible agent over UDP. Lines are packed into datagrams of at most maxPacketSize
+ * bytes, separated by '\n', through one non blocking DatagramChannel and one direct ByteBuffer.
+ *
+ * Names have '>' replaced by '.' and the characters StatsD reserves replaced by '_'. COUNT counters and atomic counters are sent as counters,
+ * since the interval holds their delta, every other counter as a gauge. A timer is sent as name.count, a counter, plus name.mean, name.max,
+ * name.p50, name.p90 and name.p99 gauges. The encoded name of each metric is cached by name id. StatsD reads a signed gauge as an adjustment of
+ * the previous value, so a negative gauge is sent as name:0|g followed by the value, both in the same datagram.
+ *
+ * A datagram the channel could not take right away, or that failed to send, is counted as dropped and not retried.
+ *
+ * @author jonathan
+ */
+public final class StatsDSink implements MetricsSink, AutoCloseable {
+
+    /**
+     * Fits an ethernet MTU after the IP and UDP headers, with room to spare for tunnels.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private static final byte[] COUNTER = bytes("|c");
+    private static final byte[] GAUGE = bytes("|g");
+    private static final byte[][] TIMER_SUFFIXES = {bytes(".count"), bytes(".mean"), bytes(".max"), bytes(".p50"), bytes(".p90"), bytes(".p99")};
+
+    private final String prefix;
+    private final DatagramChannel channel;
+    private final ByteBuffer packet;
+    private final AtomicLong sentDatagrams = new AtomicLong();
+    private final AtomicLong sentLines = new AtomicLong();
+    private final AtomicLong droppedDatagrams = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private byte[][] names = new byte[0][];
+    private String[] rawNames = new String[0];
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int linesInPacket;
+
+    public StatsDSink(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port), "", DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    /**
+     * @param prefix prepended to every name, for example "myservice.".
+     */
+    public StatsDSink(SocketAddress address, String prefix, int maxPacketSize) throws IOException {
+        if (maxPacketSize < 64) {
+            throw new IllegalArgumentException("maxPacketSize must be at least 64.");
+        }
+        this.prefix = prefix;
+        this.packet = ByteBuffer.allocateDirect(maxPacketSize);
+        this.channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void report(MetricsSnapshot interval) throws IOException {
+        for (int row = 0; row < interval.size(); row++) {
+            byte[] name = name(interval, row);
+            byte kind = interval.getKind(row);
+            if (kind == MetricsSnapshot.TIMER) {
+                long count = interval.getValue(row);
+                line(name, TIMER_SUFFIXES[0], count, Double.NaN, COUNTER);
+                if (count != 0) {
+                    line(name, TIMER_SUFFIXES[1], Long.MIN_VALUE, interval.getMean(row), GAUGE);
+                    line(name, TIMER_SUFFIXES[2], Long.MIN_VALUE, interval.getMax(row), GAUGE);
+                    line(name, TIMER_SUFFIXES[3], Long.MIN_VALUE, interval.get50ThPercentile(row), GAUGE);
+                    line(name, TIMER_SUFFIXES[4], Long.MIN_VALUE, interval.get90ThPercentile(row), GAUGE);
+                    line(name, TIMER_SUFFIXES[5], Long.MIN_VALUE, interval.get99ThPercentile(row), GAUGE);
+                }
+            } else {
+                boolean delta = kind != MetricsSnapshot.BUCKETED_COUNTER && interval.getValueType(row) == ValueType.COUNT;
+                line(name, null, interval.getValue(row), Double.NaN, delta ? COUNTER : GAUGE);
+            }
+        }
+        send();
+    }
+
+    public long getSentDatagrams() {
+        return sentDatagrams.get();
+    }
+
+    public long getSentLines() {
+        return sentLines.get();
+    }
+
+    public long getDroppedDatagrams() {
+        return droppedDatagrams.get();
+    }
+
+    /**
+     * @return lines lost with dropped datagrams, plus lines too long for a datagram of their own.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Formats name suffix:value|type into the line scratch, value being the long unless it is Long.MIN_VALUE, and appends it to the packet.
+     * A NaN gauge is skipped, a negative gauge is preceded by a line setting it to 0.
+     */
+    private void line(byte[] name, byte[] suffix, long longValue, double doubleValue, byte[] type) throws IOException {
+        if (longValue == Long.MIN_VALUE && Double.isNaN(doubleValue)) {
+            return;
+        }
+        lineLength = 0;
+        int lines = 1;
+        if (type == GAUGE && (longValue != Long.MIN_VALUE ? longValue < 0 : doubleValue < 0)) {
+            append(name);
+            if (suffix != null) {
+                append(suffix);
+            }
+            append((byte) ':');
+            append((byte) '0');
+            append(type);
+            append((byte) '\n');
+            lines++;
+        }
+        append(name);
+        if (suffix != null) {
+            append(suffix);
+        }
+        append((byte) ':');
+        if (longValue != Long.MIN_VALUE) {
+            appendLong(longValue);
+        } else {
+            appendDouble(doubleValue);
+        }
+        append(type);
+
+        int needed = linesInPacket == 0 ? lineLength : lineLength + 1;
+        if (needed > packet.remaining()) {
+            send();
+            needed = lineLength;
+        }
+        if (needed > packet.remaining()) {
+            droppedLines.addAndGet(lines);
+            return;
+        }
+        if (linesInPacket != 0) {
+            packet.put((byte) '\n');
+        }
+        packet.put(line, 0, lineLength);
+        linesInPacket += lines;
+    }
+
+    private void send() {
+        if (linesInPacket == 0) {
+            return;
+        }
+        packet.flip();
+        try {
+            if (channel.write(packet) > 0) {
+                sentDatagrams.incrementAndGet();
+                sentLines.addAndGet(linesInPacket);
+            } else {
+                droppedDatagrams.incrementAndGet();
+                droppedLines.addAndGet(linesInPacket);
+            }
+        } catch (IOException e) {
+            droppedDatagrams.incrementAndGet();
+            droppedLines.addAndGet(linesInPacket);
+        }
+        packet.clear();
+        linesInPacket = 0;
+    }
+
+    private byte[] name(MetricsSnapshot snapshot, int row) {
+        int nameId = snapshot.getNameId(row);
+        if (nameId >= names.length) {
+            names = Arrays.copyOf(names, Math.max(nameId + 1, names.length * 2));
+            rawNames = Arrays.copyOf(rawNames, names.length);
+        }
+        byte[] name = names[nameId];
+        if (name == null || rawNames[nameId] != snapshot.getName(row)) {
+            rawNames[nameId] = snapshot.getName(row);
+            String raw = prefix + rawNames[nameId];
+            StringBuilder sb = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c == '>') {
+                    sb.append('.');
+                } else if (c == ':' || c == '|' || c == '@' || c == '#' || c == '\n' || Character.isWhitespace(c)) {
+                    sb.append('_');
+                } else {
+                    sb.append(c);
+                }
+            }
+            name = bytes(sb.toString());
+            names[nameId] = name;
+        }
+        return name;
+    }
+
+    private void append(byte b) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        if (lineLength + bytes.length > line.length) {
+            line = Arrays.copyOf(line, Math.max(lineLength + bytes.length, line.length * 2));
+        }
+        System.arraycopy(bytes, 0, line, lineLength, bytes.length);
+        lineLength += bytes.length;
+    }
+
+    private void appendLong(long value) {
+        if (value < 0) {
+            append((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                append(bytes("9223372036854775808"));
+                return;
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            append((byte) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Rounded to three decimals, trailing zeros dropped. Infinite values are clamped to the long range.
+     */
+    private void appendDouble(double value) {
+        long thousandths = Math.max(-Long.MAX_VALUE, Math.round(value * 1000));
+        if (thousandths < 0) {
+            append((byte) '-');
+            thousandths = -thousandths;
+        }
+        appendLong(thousandths / 1000);
+        long fraction = thousandths % 1000;
+        if (fraction != 0) {
+            append((byte) '.');
+            append((byte) ('0' + fraction / 100));
+            fraction %= 100;
+            if (fraction != 0) {
+                append((byte) ('0' + fraction / 10));
+                fraction %= 10;
+                if (fraction != 0) {
+                    append((byte) ('0' + fraction));
+                }
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
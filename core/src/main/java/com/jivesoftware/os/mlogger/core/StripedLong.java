@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A long that is exact under concurrent updates and scales with the number of writing cores. Like LongAdder, writes go to a single base value until two
+ * writers collide on it. Only then are the striped cells allocated, so the many counters that are never contended cost one long. Once inflated, writes
+ * land in one of a fixed number of cells chosen by thread id, each on its own 64 byte cache line so writers on different cores never false share.
+ *
+ * The cells are not preallocated. They are allocated once, all together and at their final size, by the first contended write, and are never grown or
+ * rehashed afterwards. LongAdder instead allocates a Cell per slot and doubles its table as contention rises.
+ *
+ * Reads sum the base and all the cells and are therefore more expensive than writes.
+ *
+ * @author jonathan
+ */
+public final class StripedLong {
+
+    /**
+     * Number of longs per cell, 8 * 8 bytes = one 64 byte cache line.
+     */
+    static final int PAD = 8;
+    static final int MAX_STRIPES = 64;
+    static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicLongFieldUpdater<StripedLong> BASE = AtomicLongFieldUpdater.newUpdater(StripedLong.class, "base");
+    private static final AtomicReferenceFieldUpdater<StripedLong, AtomicLongArray> CELLS = AtomicReferenceFieldUpdater.newUpdater(StripedLong.class,
+        AtomicLongArray.class, "cells");
+
+    private final int mask;
+    private volatile long base;
+    private volatile AtomicLongArray cells;
+
+    public StripedLong() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes rounded up to the next power of two and capped at 64. Only allocated once writers contend.
+     */
+    public StripedLong(int stripes) {
+        this.mask = stripesFor(stripes) - 1;
+    }
+
+    static int stripesFor(int requested) {
+        int stripes = 1;
+        while (stripes < requested && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public int getNumberOfStripes() {
+        return mask + 1;
+    }
+
+    boolean isStriped() {
+        return cells != null;
+    }
+
+    private int cell() {
+        return (((int) Thread.currentThread().getId() & mask) + 1) * PAD;
+    }
+
+    private AtomicLongArray inflate() {
+        // one extra leading cell so that the first real cell does not share a line with the array header.
+        CELLS.compareAndSet(this, null, new AtomicLongArray((mask + 2) * PAD));
+        return cells;
+    }
+
+    public void add(long amount) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            long b = base;
+            if (BASE.compareAndSet(this, b, b + amount)) {
+                return;
+            }
+            cs = inflate();
+        }
+        cs.getAndAdd(cell(), amount);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public long sum() {
+        long sum = base;
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = PAD; i < cs.length(); i += PAD) {
+                sum += cs.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Takes the value, leaving zero. Every add ends up in exactly one sumThenReset() or still in this value, because the base and each cell are taken
+     * with a getAndSet. LongAdder.sumThenReset() can lose an add that races with it.
+     */
+    public long sumThenReset() {
+        long sum = BASE.getAndSet(this, 0);
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = PAD; i < cs.length(); i += PAD) {
+                sum += cs.getAndSet(i, 0);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Not atomic with respect to concurrent adds, same as LongAdder.reset().
+     */
+    public void reset() {
+        set(0);
+    }
+
+    /**
+     * Concurrent sets leave exactly one of the values, because only the base is ever set and the cells are only ever zeroed. An add racing with a set may
+     * be lost, same as LongAdder.reset().
+     */
+    public void set(long value) {
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = PAD; i < cs.length(); i += PAD) {
+                cs.set(i, 0);
+            }
+        }
+        base = value;
+    }
+}
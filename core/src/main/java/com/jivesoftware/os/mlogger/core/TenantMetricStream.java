@@ -7,4 +7,14 @@ package com.jivesoftware.os.mlogger.core;
 public interface TenantMetricStream {
 
     boolean stream(String tenant, CountersAndTimers cat);
+
+    /**
+     * Called instead of {@link #stream(String, CountersAndTimers)} for heavy hitter tenants, see {@link CountersAndTimers#setHeavyHitterTenants(int)}.
+     *
+     * @param count estimated number of tenant metric calls, over estimates by at most error.
+     * @param error bound on how much count over estimates.
+     */
+    default boolean stream(String tenant, CountersAndTimers cat, long count, long error) {
+        return stream(tenant, cat);
+    }
 }
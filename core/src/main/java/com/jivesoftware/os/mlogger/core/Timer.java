@@ -15,93 +15,208 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 
 /**
+ * Either keeps a window of the last N samples or records into a {@link TimerHistogram}, see {@link TimerMode}.
+ *
+ * The TimerMXBean getters are served from a {@link TimerSnapshot} that is rebuilt at most once per staleness window, so a scrape of every attribute
+ * costs one sort of the window (or one pass over the histogram) and every attribute describes the same samples.
+ *
+ * The sample window is guarded by a ReentrantLock rather than a monitor so a contended virtual thread parks instead of pinning its carrier.
  *
  * @author jonathan
  */
 public class Timer implements TimerMXBean {
 
+    public static final long DEFAULT_SNAPSHOT_STALENESS_MILLIS = 1000;
+
     final DescriptiveStatistics stats;
+    final TimerHistogram histogram;
+    private final ReentrantLock statsLock = new ReentrantLock();
     private volatile long sampleCount;
     private long lastSample;
+    private volatile long snapshotStalenessMillis = DEFAULT_SNAPSHOT_STALENESS_MILLIS;
+    private volatile TimerSnapshot snapshot;
+    private final Clock clock;
 
     public Timer(int sampleWindowSize) {
+        this(sampleWindowSize, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param clock decides when a cached snapshot is stale.
+     */
+    public Timer(int sampleWindowSize, Clock clock) {
         this.stats = new DescriptiveStatistics(sampleWindowSize);
+        this.histogram = null;
+        this.clock = clock;
+    }
+
+    public Timer(TimerHistogram histogram) {
+        this(histogram, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param clock decides when a cached snapshot is stale.
+     */
+    public Timer(TimerHistogram histogram, Clock clock) {
+        this.stats = null;
+        this.histogram = histogram;
+        this.clock = clock;
     }
 
     public long getSampleCount() {
+        if (histogram != null) {
+            return histogram.getCount();
+        }
         return sampleCount;
     }
 
+    /**
+     * @return samples taken since the last reset. Unlike getSampleCount() it does not drop as a {@link WindowedHistogram} window moves on.
+     */
+    public long getTotalSampleCount() {
+        if (histogram instanceof WindowedHistogram) {
+            return ((WindowedHistogram) histogram).getTotalCount();
+        }
+        return getSampleCount();
+    }
+
     public long getLastSample() {
         return lastSample;
     }
 
+    public long getSnapshotStalenessMillis() {
+        return snapshotStalenessMillis;
+    }
+
+    /**
+     * @param snapshotStalenessMillis how long a snapshot is reused by the getters. 0 rebuilds it on every read.
+     */
+    public void setSnapshotStalenessMillis(long snapshotStalenessMillis) {
+        this.snapshotStalenessMillis = snapshotStalenessMillis;
+    }
+
     public void sample(long sample) {
-        sampleCount++;
         lastSample = sample;
-        stats.addValue(sample);
+        if (histogram != null) {
+            histogram.record(sample);
+        } else {
+            statsLock.lock();
+            try {
+                sampleCount++;
+                stats.addValue(sample);
+            } finally {
+                statsLock.unlock();
+            }
+        }
     }
 
     public void reset() {
         lastSample = 0;
-        sampleCount = 0;
-        stats.clear();
+        if (histogram != null) {
+            histogram.reset();
+        } else {
+            statsLock.lock();
+            try {
+                sampleCount = 0;
+                stats.clear();
+            } finally {
+                statsLock.unlock();
+            }
+        }
+        snapshot = null;
+    }
+
+    /**
+     * @return a snapshot no older than the staleness window.
+     */
+    public TimerSnapshot getSnapshot() {
+        TimerSnapshot got = snapshot;
+        long now = clock.currentTimeMillis();
+        if (got == null || now - got.getTimestampMillis() >= snapshotStalenessMillis) {
+            got = takeSnapshot(now);
+            snapshot = got;
+        }
+        return got;
+    }
+
+    private TimerSnapshot takeSnapshot(long now) {
+        if (histogram != null) {
+            return histogram.snapshot(now);
+        }
+        double[] values;
+        statsLock.lock();
+        try {
+            values = stats.getValues();
+        } finally {
+            statsLock.unlock();
+        }
+        return TimerSnapshot.of(now, values);
     }
 
     @Override
     public double getMin() {
-        return stats.getMin();
+        return getSnapshot().getMin();
     }
 
     @Override
     public double getMax() {
-        return stats.getMax();
+        return getSnapshot().getMax();
     }
 
     @Override
     public double getMean() {
-        return stats.getMean();
+        return getSnapshot().getMean();
     }
 
     @Override
     public double getVariance() {
-        return stats.getVariance();
+        return getSnapshot().getVariance();
     }
 
     @Override
     public double get50ThPercentile() {
-        return stats.getPercentile(50);
+        return getSnapshot().get50ThPercentile();
     }
 
     @Override
     public double get75ThPercentile() {
-        return stats.getPercentile(50);
+        return getSnapshot().get75ThPercentile();
     }
 
     @Override
     public double get90ThPercentile() {
-        return stats.getPercentile(90);
+        return getSnapshot().get90ThPercentile();
     }
 
     @Override
     public double get95ThPercentile() {
-        return stats.getPercentile(95);
+        return getSnapshot().get95ThPercentile();
     }
 
     @Override
     public double get99ThPercentile() {
-        return stats.getPercentile(99);
+        return getSnapshot().get99ThPercentile();
     }
 
     /**
+    Not served from the snapshot, computed on every call.
 
     @param percentile 0 - 100;
     @return
     */
     public double getPercentile(double percentile) {
-        return stats.getPercentile(percentile);
+        if (histogram != null) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+        statsLock.lock();
+        try {
+            return stats.getPercentile(percentile);
+        } finally {
+            statsLock.unlock();
+        }
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * The lock free recorders a {@link Timer} can be backed by.
+ *
+ * @author jonathan
+ */
+public interface TimerHistogram {
+
+    void record(long value);
+
+    void reset();
+
+    long getCount();
+
+    /**
+     * @param percentile 0 - 100
+     * @return NaN if empty.
+     */
+    double getValueAtPercentile(double percentile);
+
+    TimerSnapshot snapshot(long timestampMillis);
+}
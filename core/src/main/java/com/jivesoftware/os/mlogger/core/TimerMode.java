@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+/**
+ * How a {@link Timer} created by {@link CountersAndTimers} keeps its samples.
+ *
+ * @author jonathan
+ */
+public enum TimerMode {
+
+    /**
+     * The last N samples in a DescriptiveStatistics window. Exact percentiles, samplers synchronize on the window.
+     */
+    SAMPLE_WINDOW,
+    /**
+     * Every sample since the last reset in a {@link LogLinearHistogram}. Bounded relative error, lock free and a fraction of the footprint.
+     */
+    HISTOGRAM,
+    /**
+     * Only the samples from a recent window of time in a {@link WindowedHistogram}, by default the last 60 seconds in 6 slices.
+     */
+    TIME_WINDOW
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Arrays;
+
+/**
+ * Immutable point in time view of a {@link Timer}. Every value is computed from the same set of samples so they are consistent with each other.
+ *
+ * @author jonathan
+ */
+public final class TimerSnapshot {
+
+    private final long timestampMillis;
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double variance;
+    private final double p50;
+    private final double p75;
+    private final double p90;
+    private final double p95;
+    private final double p99;
+
+    public TimerSnapshot(long timestampMillis, long count, double min, double max, double mean, double variance,
+        double p50, double p75, double p90, double p95, double p99) {
+        this.timestampMillis = timestampMillis;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.variance = variance;
+        this.p50 = p50;
+        this.p75 = p75;
+        this.p90 = p90;
+        this.p95 = p95;
+        this.p99 = p99;
+    }
+
+    /**
+     * One sort of the window produces every value. Percentiles are estimated the same way DescriptiveStatistics.getPercentile does.
+     *
+     * @param values will be sorted in place.
+     */
+    static TimerSnapshot of(long timestampMillis, double[] values) {
+        int n = values.length;
+        if (n == 0) {
+            return new TimerSnapshot(timestampMillis, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        Arrays.sort(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        double mean = sum / n;
+        double variance = 0;
+        if (n > 1) {
+            double sumOfSquares = 0;
+            double sumOfDeltas = 0;
+            for (double value : values) {
+                double delta = value - mean;
+                sumOfSquares += delta * delta;
+                sumOfDeltas += delta;
+            }
+            variance = (sumOfSquares - (sumOfDeltas * sumOfDeltas / n)) / (n - 1);
+        }
+        return new TimerSnapshot(timestampMillis, n, values[0], values[n - 1], mean, variance,
+            percentile(values, 50), percentile(values, 75), percentile(values, 90), percentile(values, 95), percentile(values, 99));
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        int n = sorted.length;
+        if (n == 1) {
+            return sorted[0];
+        }
+        double pos = p * (n + 1) / 100;
+        double fpos = Math.floor(pos);
+        int intPos = (int) fpos;
+        if (pos < 1) {
+            return sorted[0];
+        }
+        if (pos >= n) {
+            return sorted[n - 1];
+        }
+        double lower = sorted[intPos - 1];
+        double upper = sorted[intPos];
+        return lower + (pos - fpos) * (upper - lower);
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return variance;
+    }
+
+    public double get50ThPercentile() {
+        return p50;
+    }
+
+    public double get75ThPercentile() {
+        return p75;
+    }
+
+    public double get90ThPercentile() {
+        return p90;
+    }
+
+    public double get95ThPercentile() {
+        return p95;
+    }
+
+    public double get99ThPercentile() {
+        return p99;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timers a single thread currently has started, as parallel primitive arrays of timer ids, start times and the CountersAndTimers that started
+ * them. Timers are almost always stopped in the reverse order they were started, so lookups scan from the top and usually hit on the first probe.
+ * Grows by doubling and never shrinks, so a thread that keeps timing allocates nothing once it has reached its deepest nesting. Not thread safe, one
+ * instance per thread.
+ *
+ * Abandoned starts, see {@link CountersAndTimers#setAbandonedTimerMaxAgeMillis(long)}, are dropped in bulk. A push whose start time is at least
+ * SWEEP_INTERVAL_MILLIS past the last sweep sweeps the whole stack, and so does a push whose start time is before the last sweep, which happens when
+ * owners use different clocks. Start times are compared per clock unit, milli and nano timers each keep their own last sweep. Sweeping also drops
+ * the starts of owners whose tenant has been evicted, so the stack does not keep them reachable. No thread is needed, the only cost on the hot path
+ * is a compare with the start time the push already has.
+ *
+ * @author jonathan
+ */
+final class TimerStack {
+
+    static final long SWEEP_INTERVAL_MILLIS = 10_000;
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long[] SWEEP_INTERVALS = {SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS)};
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private CountersAndTimers[] owners = new CountersAndTimers[INITIAL_CAPACITY];
+    private int size;
+    // indexed by the nanos bit of the timer id.
+    private final long[] lastSweeps = {Long.MIN_VALUE, Long.MIN_VALUE};
+
+    /**
+     * @return false if timerId was already started and is not abandoned, in which case the original start is kept.
+     */
+    boolean push(CountersAndTimers owner, int timerId, long start) {
+        int unit = timerId & 1;
+        long lastSweep = lastSweeps[unit];
+        if (start < lastSweep || start >= lastSweep + SWEEP_INTERVALS[unit]) {
+            lastSweeps[unit] = start;
+            sweep();
+        }
+        int index = indexOf(timerId);
+        if (index >= 0) {
+            if (!owners[index].isAbandoned(timerId, starts[index])) {
+                return false;
+            }
+            owners[index].abandoned();
+            starts[index] = start;
+            return true;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            owners = Arrays.copyOf(owners, size * 2);
+        }
+        ids[size] = timerId;
+        starts[size] = start;
+        owners[size] = owner;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return Long.MIN_VALUE if timerId was never started.
+     */
+    long pop(int timerId) {
+        int index = indexOf(timerId);
+        if (index < 0) {
+            return Long.MIN_VALUE;
+        }
+        long start = starts[index];
+        size--;
+        if (index < size) {
+            System.arraycopy(ids, index + 1, ids, index, size - index);
+            System.arraycopy(starts, index + 1, starts, index, size - index);
+            System.arraycopy(owners, index + 1, owners, index, size - index);
+        }
+        owners[size] = null;
+        return start;
+    }
+
+    /**
+     * Drops every abandoned start and every start of an evicted owner, keeping the rest in order.
+     */
+    void sweep() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (owners[i].isEvicted()) {
+                continue;
+            }
+            if (owners[i].isAbandoned(ids[i], starts[i])) {
+                owners[i].abandoned();
+            } else {
+                ids[kept] = ids[i];
+                starts[kept] = starts[i];
+                owners[kept] = owners[i];
+                kept++;
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            owners[i] = null;
+        }
+        size = kept;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int indexOf(int timerId) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (ids[i] == timerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Describes only the samples recorded in a recent window of time, for example "the last 60 seconds in 6 slices". The window is a ring of
+ * {@link LogLinearHistogram} slices, each covering windowMillis / numberOfSlices. The slice a sample lands in is picked from the clock, and a slice is
+ * cleared lazily by the first sample that arrives after its time has come around again. Reads merge every slice that is still inside the window.
+ *
+ * The footprint is numberOfSlices histograms no matter the throughput. Because expiry happens a slice at a time, reads describe between
+ * windowMillis - sliceMillis and windowMillis of history. getTotalCount() is the exception, it counts every sample since the last reset.
+ *
+ * @author jonathan
+ */
+public final class WindowedHistogram implements TimerHistogram {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60_000;
+    public static final int DEFAULT_NUMBER_OF_SLICES = 6;
+
+    private final Clock clock;
+    private final long sliceMillis;
+    private final LogLinearHistogram[] slices;
+    private final AtomicLongArray epochs;
+    private final StripedLong total = new StripedLong();
+
+    public WindowedHistogram() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_NUMBER_OF_SLICES);
+    }
+
+    public WindowedHistogram(long windowMillis, int numberOfSlices) {
+        this(SystemClock.INSTANCE, windowMillis, numberOfSlices);
+    }
+
+    public WindowedHistogram(Clock clock, long windowMillis, int numberOfSlices) {
+        this(clock, windowMillis, numberOfSlices, LogLinearHistogram.DEFAULT_PRECISION_BITS, LogLinearHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    public WindowedHistogram(Clock clock, long windowMillis, int numberOfSlices, int precisionBits, long highestTrackableValue) {
+        if (numberOfSlices < 1) {
+            throw new IllegalArgumentException("numberOfSlices must be at least 1.");
+        }
+        if (windowMillis < numberOfSlices) {
+            throw new IllegalArgumentException("windowMillis must be at least numberOfSlices.");
+        }
+        this.clock = clock;
+        this.sliceMillis = windowMillis / numberOfSlices;
+        this.slices = new LogLinearHistogram[numberOfSlices];
+        this.epochs = new AtomicLongArray(numberOfSlices);
+        for (int i = 0; i < numberOfSlices; i++) {
+            slices[i] = new LogLinearHistogram(precisionBits, highestTrackableValue);
+            epochs.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    public long getWindowMillis() {
+        return sliceMillis * slices.length;
+    }
+
+    public int getNumberOfSlices() {
+        return slices.length;
+    }
+
+    private long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    @Override
+    public void record(long value) {
+        long epoch = currentTimeMillis() / sliceMillis;
+        int index = (int) (epoch % slices.length);
+        if (epochs.get(index) != epoch) {
+            rotate(index, epoch);
+        }
+        slices[index].record(value);
+        total.increment();
+    }
+
+    private void rotate(int index, long epoch) {
+        synchronized (slices[index]) {
+            if (epochs.get(index) < epoch) {
+                slices[index].reset();
+                epochs.set(index, epoch);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < slices.length; i++) {
+            synchronized (slices[i]) {
+                slices[i].reset();
+                epochs.set(i, Long.MIN_VALUE);
+            }
+        }
+        total.reset();
+    }
+
+    private boolean live(int index, long currentEpoch) {
+        long epoch = epochs.get(index);
+        return epoch <= currentEpoch && currentEpoch - epoch < slices.length;
+    }
+
+    /**
+     * @return every sample recorded since the last reset, unlike getCount() it does not drop as slices expire.
+     */
+    public long getTotalCount() {
+        return total.sum();
+    }
+
+    @Override
+    public long getCount() {
+        long currentEpoch = currentTimeMillis() / sliceMillis;
+        long count = 0;
+        for (int i = 0; i < slices.length; i++) {
+            if (live(i, currentEpoch)) {
+                count += slices[i].getCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public double getValueAtPercentile(double percentile) {
+        long[] counts = new long[slices[0].getNumberOfBuckets()];
+        long[] minMax = merge(counts, currentTimeMillis() / sliceMillis);
+        return slices[0].getValueAtPercentile(counts, minMax[0], minMax[1], percentile);
+    }
+
+    @Override
+    public TimerSnapshot snapshot(long timestampMillis) {
+        long[] counts = new long[slices[0].getNumberOfBuckets()];
+        long[] minMaxSum = merge(counts, currentTimeMillis() / sliceMillis);
+        return slices[0].snapshot(timestampMillis, counts, minMaxSum[2], minMaxSum[0], minMaxSum[1]);
+    }
+
+    private long[] merge(long[] counts, long currentEpoch) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum = 0;
+        for (int i = 0; i < slices.length; i++) {
+            if (live(i, currentEpoch)) {
+                LogLinearHistogram slice = slices[i];
+                slice.copyCounts(counts);
+                sum += slice.getSum();
+                min = Math.min(min, slice.getRawMin());
+                max = Math.max(max, slice.getRawMax());
+            }
+        }
+        return new long[]{min, max, sum};
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class AsyncLogDispatcherTest {
+
+    private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+    private final AtomicReference<CountDownLatch> release = new AtomicReference<>(new CountDownLatch(0));
+    private org.apache.logging.log4j.core.Logger coreLogger;
+    private AbstractAppender appender;
+
+    private MetricLogger asyncLogger(String name, AsyncLogDispatcher dispatcher) {
+        AsyncLogDispatcher.setShared(dispatcher);
+        MetricLogger log = new MetricLogger(name, new LoggerSummary());
+        log.setDelivery(LogDelivery.ASYNC);
+        coreLogger = (org.apache.logging.log4j.core.Logger) log.logger;
+        coreLogger.setAdditive(false);
+        appender = new CapturingAppender(events, release);
+        appender.start();
+        coreLogger.addAppender(appender);
+        return log;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        release.get().countDown();
+        AsyncLogDispatcher.setShared(null);
+        if (coreLogger != null) {
+            coreLogger.removeAppender(appender);
+            coreLogger.setAdditive(true);
+        }
+        events.clear();
+    }
+
+    @Test
+    public void testDeliversEveryEventInOrderPerThread() throws Exception {
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, AsyncLogDispatcher.FullPolicy.BLOCK, 10);
+        MetricLogger log = asyncLogger("asyncDeliveryTest", dispatcher);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    log.warn("thread {} event {}", thread, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        IllegalStateException thrown = new IllegalStateException("boom");
+        log.error("failed", thrown);
+        dispatcher.flush();
+
+        Assert.assertEquals(events.size(), 4_001);
+        Assert.assertEquals(dispatcher.getDropped(), 0);
+        int[] last = {-1, -1, -1, -1};
+        for (LogEvent event : events.subList(0, 4_000)) {
+            String[] parts = event.getMessage().getFormattedMessage().split(" ");
+            int thread = Integer.parseInt(parts[1]);
+            int i = Integer.parseInt(parts[3]);
+            Assert.assertEquals(i, last[thread] + 1);
+            last[thread] = i;
+        }
+        Assert.assertSame(events.get(4_000).getThrown(), thrown);
+        Assert.assertEquals(log.loggerSummary.warns.sum(), 4_000);
+        Assert.assertEquals(log.loggerSummary.throwables().size(), 1);
+        String[] errors = log.loggerSummary.lastNErrors.get();
+        Assert.assertTrue(errors[errors.length - 1].endsWith(" failed java.lang.IllegalStateException: boom"), errors[errors.length - 1]);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        release.set(new CountDownLatch(1));
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(4, AsyncLogDispatcher.FullPolicy.DROP, 10);
+        MetricLogger log = asyncLogger("asyncDropTest", dispatcher);
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            log.warn("event {}", i);
+        }
+        long nanos = System.nanoTime() - start;
+        Assert.assertTrue(nanos < TimeUnit.SECONDS.toNanos(1), "callers never wait " + nanos);
+        release.get().countDown();
+        dispatcher.flush();
+
+        Assert.assertTrue(events.size() <= 5, "delivered " + events.size());
+        Assert.assertEquals(events.size() + dispatcher.getDropped(), 20);
+        Assert.assertEquals(log.countersAndTimers.getCounterIfAvailable("logged.dropped").getCount(), dispatcher.getDropped());
+        Assert.assertEquals(log.loggerSummary.warns.sum(), 20);
+    }
+
+    @Test
+    public void testSampleWhenBackedUp() throws Exception {
+        release.set(new CountDownLatch(1));
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, AsyncLogDispatcher.FullPolicy.SAMPLE, 10);
+        MetricLogger log = asyncLogger("asyncSampleTest", dispatcher);
+        for (int i = 0; i < 200; i++) {
+            log.warn("event {}", i);
+        }
+        release.get().countDown();
+        dispatcher.flush();
+
+        Assert.assertTrue(events.size() > 32 && events.size() <= 65, "delivered " + events.size());
+        Assert.assertTrue(events.size() >= 32 + 10, "sampled beyond half full " + events.size());
+        Assert.assertEquals(events.size() + dispatcher.getDropped(), 200);
+    }
+
+    @Test
+    public void testCloseRacingPublishersLosesNothingUncounted() throws Exception {
+        MetricLogger log = asyncLogger("asyncCloseRaceTest", new AsyncLogDispatcher(1024, AsyncLogDispatcher.FullPolicy.DROP, 10));
+        for (int round = 0; round < 20; round++) {
+            events.clear();
+            AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(1024, AsyncLogDispatcher.FullPolicy.DROP, 10);
+            AsyncLogDispatcher.setShared(dispatcher);
+            CountDownLatch started = new CountDownLatch(4);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 2_000; i++) {
+                        log.warn("event {}", i);
+                    }
+                });
+                threads[t].start();
+            }
+            started.await();
+            dispatcher.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertEquals(events.size() + dispatcher.getDropped(), 8_000, "round " + round);
+            Assert.assertEquals(dispatcher.getBacklog(), 0);
+        }
+    }
+
+    @Test
+    public void testEventsCarryTheCallersThreadContextAndTime() throws Exception {
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, AsyncLogDispatcher.FullPolicy.BLOCK, 10, true);
+        MetricLogger log = asyncLogger("asyncContextTest", dispatcher);
+        ManualClock clock = new ManualClock(1_000_000);
+        log.loggerSummary.setClock(clock);
+        ThreadContext.put("request", "r1");
+        try {
+            log.warn("in context");
+        } finally {
+            ThreadContext.remove("request");
+        }
+        clock.advance(1, TimeUnit.MINUTES);
+        dispatcher.flush();
+
+        Assert.assertEquals(events.size(), 1);
+        LogEvent event = events.get(0);
+        Assert.assertEquals(event.getThreadName(), Thread.currentThread().getName());
+        Assert.assertEquals(event.getContextMap().get("request"), "r1");
+        Assert.assertEquals(event.getTimeMillis(), 1_000_000);
+        Assert.assertEquals(event.getSource().getMethodName(), "testEventsCarryTheCallersThreadContextAndTime");
+    }
+
+    @Test
+    public void testConsumerLogsInline() throws Exception {
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(2, AsyncLogDispatcher.FullPolicy.BLOCK, 10);
+        MetricLogger log = asyncLogger("asyncReentrantTest", dispatcher);
+        Object loud = new Object() {
+            @Override
+            public String toString() {
+                for (int i = 0; i < 10; i++) {
+                    log.info("from toString {}", i);
+                }
+                return "loud";
+            }
+        };
+        log.warn("formatting {}", loud);
+        dispatcher.flush();
+
+        Assert.assertEquals(events.size(), 11);
+        Assert.assertEquals(events.get(10).getMessage().getFormattedMessage(), "formatting loud");
+        Assert.assertEquals(dispatcher.getDropped(), 0);
+    }
+
+    @Test
+    public void testSharedDefaultNeverBlocks() {
+        AsyncLogDispatcher.setShared(null);
+        Assert.assertEquals(AsyncLogDispatcher.getShared().getPolicy(), AsyncLogDispatcher.FullPolicy.SAMPLE);
+    }
+
+    private static final class CapturingAppender extends AbstractAppender {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<LogEvent> events;
+        private final AtomicReference<CountDownLatch> release;
+
+        private CapturingAppender(List<LogEvent> events, AtomicReference<CountDownLatch> release) {
+            super("capture", null, null);
+            this.events = events;
+            this.release = release;
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            try {
+                release.get().await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        }
+    }
+}
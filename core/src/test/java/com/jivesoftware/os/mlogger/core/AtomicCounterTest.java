@@ -57,4 +57,31 @@ public class AtomicCounterTest {
         atomicCounter.setType(ValueType.RATE);
         Assert.assertEquals(atomicCounter.getType(), ValueType.RATE.name());
     }
+
+    @Test
+    public void testForwardToWhileIncrementing() throws InterruptedException {
+        AtomicCounter source = new AtomicCounter(ValueType.COUNT);
+        AtomicCounter target = new AtomicCounter(ValueType.COUNT);
+        target.inc(7);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    source.inc();
+                }
+            });
+            threads[t].start();
+        }
+        Thread.yield();
+        source.forwardTo(target);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(source.getCount(), 0);
+        Assert.assertEquals(target.getCount(), 400_007);
+
+        source.dec(2);
+        Assert.assertEquals(source.getCount(), 0);
+        Assert.assertEquals(target.getCount(), 400_005);
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class BucketedCounterTest {
+
+    @Test
+    public void testBucketExpiry() {
+        ManualClock now = new ManualClock(1_000_000);
+        BucketedCounter counter = new BucketedCounter(now, ValueType.COUNT, 1000, 3);
+
+        counter.inc();
+        counter.inc(4);
+        Assert.assertEquals(counter.getValue(), 5);
+
+        now.advance(1000, TimeUnit.MILLISECONDS);
+        counter.inc(10);
+        counter.dec();
+        Assert.assertEquals(counter.getValue(), 14);
+        Assert.assertEquals(counter.getValue(1), 9);
+
+        now.advance(2000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(counter.getValue(), 9);
+
+        // every slot in the ring has come around, stale values must not leak into the new buckets
+        now.advance(4000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(counter.getValue(), 0);
+        counter.inc(2);
+        Assert.assertEquals(counter.getCount(), 2);
+
+        counter.reset();
+        Assert.assertEquals(counter.getCount(), 0);
+        Assert.assertEquals(counter.toJsonString(), "{\"type\":\"COUNT\",\"value\":0}");
+    }
+
+    @Test
+    public void testExactUnderContention() throws InterruptedException {
+        BucketedCounter counter = new BucketedCounter(ValueType.COUNT, 60_000, 10);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    counter.inc();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(counter.getValue(), 800_000);
+    }
+
+    @Test
+    public void testExactWhileRotating() throws InterruptedException {
+        ManualClock now = new ManualClock(0);
+        BucketedCounter counter = new BucketedCounter(now, ValueType.COUNT, 1, 2_000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    counter.inc();
+                }
+            });
+            threads[t].start();
+        }
+        for (int i = 0; i < 1_500; i++) {
+            now.advance(1, TimeUnit.MILLISECONDS);
+            Thread.yield();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(counter.getValue(), 400_000);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class ClockTest {
+
+    @Test
+    public void testCoarseClockTicks() throws InterruptedException {
+        try (CoarseClock clock = new CoarseClock(1)) {
+            long start = clock.currentTimeMillis();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (clock.currentTimeMillis() == start && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertTrue(clock.currentTimeMillis() > start);
+            Assert.assertTrue(Math.abs(clock.currentTimeMillis() - System.currentTimeMillis()) < 1_000);
+        }
+    }
+
+    @Test
+    public void testManualClockDrivesTimers() {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("ClockTest");
+        countersAndTimers.setClock(clock);
+
+        countersAndTimers.startTimer("a");
+        clock.advance(42, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("a", "a", 10).getLastSample(), 42);
+
+        countersAndTimers.startNanoTimer("b");
+        clock.advance(7, TimeUnit.MICROSECONDS);
+        Assert.assertEquals(countersAndTimers.stopNanoTimer("b", "b"), 7_000);
+
+        clock.setCurrentTimeMillis(5_000);
+        Assert.assertEquals(clock.currentTimeMillis(), 5_000);
+        Assert.assertEquals(countersAndTimers.getTenantMetric("tenant").getClock(), clock);
+    }
+}
@@ -17,7 +17,11 @@ package com.jivesoftware.os.mlogger.core;
 
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 /**
@@ -51,4 +55,40 @@ public class CountAndTimeTest {
             Assert.assertTrue(entry.getValue().getMax() > 250);
         }
     }
+
+    /**
+     * One task per virtual thread, each going through CountAndTime.call and a MetricLogger start / stop. Skipped on runtimes without virtual threads.
+     */
+    @Test
+    public void testMillionVirtualThreads() throws Exception {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new SkipException("virtual threads are not available on " + System.getProperty("java.version"));
+        }
+        int tasks = 1_000_000;
+        MetricLogger logger = MetricLoggerFactory.getLogger("virtualCountAndTimeTest");
+        CountAndTime countAndTime = new CountAndTime(logger, "call");
+
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                try {
+                    countAndTime.call(() -> {
+                        logger.startTimer("startStop");
+                        return logger.stopTimer("startStop");
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+
+        CountersAndTimers countersAndTimers = logger.countersAndTimers;
+        Assert.assertEquals(countersAndTimers.getCounterIfAvailable("call").getCount(), tasks);
+        Assert.assertEquals(countersAndTimers.getTimerIfAvailable("call").getSampleCount(), tasks);
+        Assert.assertEquals(countersAndTimers.getTimerIfAvailable("startStop").getSampleCount(), tasks);
+    }
 }
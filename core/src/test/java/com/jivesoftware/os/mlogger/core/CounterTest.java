@@ -59,4 +59,31 @@ public class CounterTest {
 
 
     }
+
+    @Test
+    public void testForwardToWhileIncrementing() throws InterruptedException {
+        Counter source = new Counter(ValueType.COUNT);
+        Counter target = new Counter(ValueType.COUNT);
+        target.inc(7);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    source.inc();
+                }
+            });
+            threads[t].start();
+        }
+        Thread.yield();
+        source.forwardTo(target);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(source.getCount(), 0);
+        Assert.assertEquals(target.getCount(), 400_007);
+
+        source.dec(2);
+        Assert.assertEquals(source.getCount(), 0);
+        Assert.assertEquals(target.getCount(), 400_005);
+    }
 }
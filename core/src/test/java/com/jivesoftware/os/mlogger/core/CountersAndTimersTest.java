@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class CountersAndTimersTest {
+
+    @Test
+    public void testBackgroundRegistration() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("backgroundRegistrationTest");
+        for (int i = 0; i < 100; i++) {
+            countersAndTimers.getTenantMetric("tenant" + i).counter(ValueType.COUNT, "hits").inc();
+            countersAndTimers.getTenantMetric("tenant" + i).timer("latency", 10).sample(i);
+        }
+        CountersAndTimers.flushRegistrations();
+        String prefix = "service.metrics:type=";
+        Assert.assertTrue(mbs.isRegistered(new ObjectName(prefix + "Counter,leaf0=backgroundRegistrationTest,leaf1=tenant,leaf2=tenant99,leaf3=hits")));
+        Assert.assertTrue(mbs.isRegistered(new ObjectName(prefix + "Timer,leaf0=backgroundRegistrationTest,leaf1=tenant,leaf2=tenant0,leaf3=latency")));
+    }
+
+    @Test
+    public void testTenantEviction() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("tenantEvictionTest");
+        Assert.assertEquals(countersAndTimers.getMaxTenants(), CountersAndTimers.DEFAULT_MAX_TENANTS);
+        countersAndTimers.setMaxTenants(2);
+
+        countersAndTimers.getTenantMetric("a").counter(ValueType.COUNT, "hits").inc(1);
+        countersAndTimers.getTenantMetric("b").counter(ValueType.COUNT, "hits").inc(10);
+        countersAndTimers.getTenantMetric("b").counter(ValueType.VALUE, "gauge").set(7);
+        countersAndTimers.getTenantMetric("b").timer("latency", 10).sample(5);
+        ObjectName bHits = new ObjectName("service.metrics:type=Counter,leaf0=tenantEvictionTest,leaf1=tenant,leaf2=b,leaf3=hits");
+        CountersAndTimers.flushRegistrations();
+        Assert.assertTrue(mbs.isRegistered(bHits));
+
+        countersAndTimers.getTenantMetric("a");
+        countersAndTimers.getTenantMetric("c").counter(ValueType.COUNT, "hits").inc(100);
+        CountersAndTimers.flushRegistrations();
+
+        Assert.assertFalse(mbs.isRegistered(bHits));
+        Assert.assertFalse(mbs.isRegistered(new ObjectName("service.metrics:type=Timer,leaf0=tenantEvictionTest,leaf1=tenant,leaf2=b,leaf3=latency")));
+        CountersAndTimers other = countersAndTimers.getTenantMetric(CountersAndTimers.OTHER_TENANT);
+        Assert.assertEquals(other.getCounterIfAvailable("hits").getCount(), 10);
+        Assert.assertNull(other.getCounterIfAvailable("gauge"));
+        Assert.assertEquals(countersAndTimers.getAllTenantSpecificMetrics().size(), 3);
+
+        for (int i = 0; i < 1_000; i++) {
+            countersAndTimers.getTenantMetric("tenant" + i).counter(ValueType.COUNT, "hits").inc();
+        }
+        Assert.assertEquals(countersAndTimers.getAllTenantSpecificMetrics().size(), 3);
+        Assert.assertEquals(other.getCounterIfAvailable("hits").getCount(), 10 + 1 + 100 + 998);
+
+        int[] streamed = new int[1];
+        countersAndTimers.streamAllTenantMetrics((tenant, cat) -> {
+            streamed[0]++;
+            return true;
+        });
+        Assert.assertEquals(streamed[0], 3);
+    }
+
+    @Test
+    public void testEvictedHandlesForwardToOther() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("evictedHandleTest");
+        countersAndTimers.setMaxTenants(1);
+        CountersAndTimers a = countersAndTimers.getTenantMetric("a");
+        Counter hits = a.counter(ValueType.COUNT, "hits");
+        AtomicCounter atomicHits = a.atomicCounter(ValueType.COUNT, "hits");
+        hits.inc(2);
+        atomicHits.inc(3);
+
+        countersAndTimers.getTenantMetric("b");
+        Assert.assertTrue(a.isEvicted());
+        hits.inc(20);
+        atomicHits.inc(30);
+        a.counter(ValueType.COUNT, "late").inc();
+
+        CountersAndTimers other = countersAndTimers.getTenantMetric(CountersAndTimers.OTHER_TENANT);
+        Assert.assertEquals(other.getCounterIfAvailable("hits").getCount(), 22);
+        Assert.assertEquals(other.getAtomicCounterIfAvailable("hits").getCount(), 33);
+        Assert.assertEquals(other.getCounterIfAvailable("late").getCount(), 1);
+        Assert.assertEquals(hits.getCount(), 0);
+        Assert.assertFalse(countersAndTimers.getTenantMetric("b").isEvicted());
+    }
+
+    @Test
+    public void testHeavyHitterTenants() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("heavyHitterTenantTest");
+        countersAndTimers.getTenantMetric("before").counter(ValueType.COUNT, "hits").inc(5);
+        countersAndTimers.setHeavyHitterTenants(2);
+        Assert.assertEquals(countersAndTimers.getHeavyHitterTenants(), 2);
+        CountersAndTimers other = countersAndTimers.getTenantMetric(CountersAndTimers.OTHER_TENANT);
+        Assert.assertEquals(other.getCounterIfAvailable("hits").getCount(), 5);
+
+        long total = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String tenant = i % 2 == 0 ? "big" : (i % 3 == 0 ? "medium" : "tail" + i);
+            countersAndTimers.getTenantMetric(tenant).counter(ValueType.COUNT, "hits").inc();
+            total++;
+        }
+        Assert.assertEquals(countersAndTimers.getAllTenantSpecificMetrics().size(), 3);
+
+        List<String> streamed = new ArrayList<>();
+        long[] sum = new long[1];
+        countersAndTimers.streamAllTenantMetrics(new TenantMetricStream() {
+            @Override
+            public boolean stream(String tenant, CountersAndTimers cat) {
+                streamed.add(tenant);
+                sum[0] += cat.getCounterIfAvailable("hits").getCount();
+                return true;
+            }
+
+            @Override
+            public boolean stream(String tenant, CountersAndTimers cat, long count, long error) {
+                Assert.assertTrue(count - error <= (tenant.equals("big") ? 5_000 : 1_667));
+                return stream(tenant, cat);
+            }
+        });
+        Assert.assertEquals(streamed, Arrays.asList("big", "medium", CountersAndTimers.OTHER_TENANT));
+        Assert.assertTrue(countersAndTimers.getTenantMetric("big").getCounterIfAvailable("hits").getCount() > 4_900);
+        Assert.assertTrue(sum[0] <= total + 5);
+
+        countersAndTimers.setHeavyHitterTenants(0);
+        Assert.assertEquals(countersAndTimers.getAllTenantSpecificMetrics().size(), 1);
+        Assert.assertEquals(other.getCounterIfAvailable("hits").getCount(), total + 5);
+    }
+
+    @Test
+    public void testPerInstanceMBean() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        CountersAndTimers countersAndTimers;
+        CountersAndTimers.setDefaultMBeanMode(MBeanMode.PER_INSTANCE);
+        try {
+            countersAndTimers = CountersAndTimers.getOrCreate("perInstanceMBeanTest");
+        } finally {
+            CountersAndTimers.setDefaultMBeanMode(MBeanMode.PER_METRIC);
+        }
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.atomicCounter(ValueType.COUNT, "atomicHits").inc(4);
+        Timer timer = countersAndTimers.timer("latency", 10);
+        timer.sample(10);
+        timer.sample(20);
+        countersAndTimers.getTenantMetric("a").counter(ValueType.COUNT, "hits").inc();
+        CountersAndTimers.flushRegistrations();
+
+        ObjectName name = new ObjectName("service.metrics:type=CountersAndTimers,leaf0=perInstanceMBeanTest");
+        Assert.assertTrue(mbs.isRegistered(name));
+        Assert.assertTrue(mbs.isRegistered(new ObjectName("service.metrics:type=CountersAndTimers,leaf0=perInstanceMBeanTest,leaf1=tenant,leaf2=a")));
+        Assert.assertFalse(mbs.isRegistered(new ObjectName("service.metrics:type=Counter,leaf0=perInstanceMBeanTest,leaf1=hits")));
+
+        Assert.assertEquals(mbs.getMBeanInfo(name).getAttributes().length, 2 + 9);
+        Assert.assertEquals(mbs.getAttribute(name, "Counter.hits"), 3L);
+        Assert.assertEquals(mbs.getAttribute(name, "Timer.latency.Max"), 20d);
+        AttributeList attributes = mbs.getAttributes(name, new String[]{"AtomicCounter.atomicHits", "Timer.latency.Mean", "missing"});
+        Assert.assertEquals(attributes.size(), 2);
+        Assert.assertEquals(((Attribute) attributes.get(0)).getValue(), 4L);
+        Assert.assertEquals(((Attribute) attributes.get(1)).getValue(), 15d);
+
+        countersAndTimers.counter(ValueType.COUNT, "more").inc();
+        Assert.assertEquals(mbs.getMBeanInfo(name).getAttributes().length, 3 + 9);
+    }
+
+    @Test
+    public void testGetAttributesCapturesEachMetricOnce() throws InterruptedException {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("getAttributesCaptureTest");
+        Counter hits = countersAndTimers.counter(ValueType.COUNT, "hits");
+        Timer timer = countersAndTimers.timer("latency", 10);
+        CountersAndTimersMBean mbean = new CountersAndTimersMBean(countersAndTimers);
+        String[] requested = {"Counter.hits", "Timer.latency.Max", "Counter.hits", "Timer.latency.Min"};
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            long value = 0;
+            while (!done.get()) {
+                hits.inc();
+                timer.sample(value++);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 1_000; i++) {
+                AttributeList attributes = mbean.getAttributes(requested);
+                Assert.assertEquals(attributes.size(), 4);
+                Assert.assertEquals(((Attribute) attributes.get(0)).getValue(), ((Attribute) attributes.get(2)).getValue());
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+}
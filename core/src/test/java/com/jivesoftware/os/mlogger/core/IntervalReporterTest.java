@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class IntervalReporterTest {
+
+    @Test
+    public void testDeltas() {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("intervalReporterTest");
+        countersAndTimers.setTimerMode(TimerMode.HISTOGRAM);
+        Counter hits = countersAndTimers.counter(ValueType.COUNT, "hits");
+        AtomicCounter size = countersAndTimers.atomicCounter(ValueType.VALUE, "size");
+        Timer latency = countersAndTimers.timer("latency", 10);
+        Timer window = countersAndTimers.timer("hits", 10);
+
+        Map<String, MetricsSnapshot> reported = new HashMap<>();
+        Map<String, Long> values = new HashMap<>();
+        Map<String, Double> maxes = new HashMap<>();
+        MetricsSink sink = interval -> {
+            for (int row = 0; row < interval.size(); row++) {
+                String name = interval.getName(row);
+                if (name.startsWith("intervalReporterTest>")) {
+                    String key = interval.getKind(row) + name;
+                    values.put(key, interval.getValue(row));
+                    maxes.put(key, interval.getMax(row));
+                }
+            }
+            reported.put("last", interval);
+        };
+        IntervalReporter reporter = new IntervalReporter(clock, sink, interval -> {
+            throw new IllegalStateException("a failing sink does not stop the others");
+        });
+
+        hits.inc(5);
+        size.set(100);
+        latency.sample(10);
+        latency.sample(1_000);
+        window.sample(3);
+        clock.advance(10, TimeUnit.SECONDS);
+        reporter.report();
+        Assert.assertEquals(reported.get("last").getIntervalMillis(), 10_000);
+        Assert.assertEquals(values.get(MetricsSnapshot.COUNTER + "intervalReporterTest>hits").longValue(), 5);
+        Assert.assertEquals(values.get(MetricsSnapshot.ATOMIC_COUNTER + "intervalReporterTest>size").longValue(), 100);
+        Assert.assertEquals(values.get(MetricsSnapshot.TIMER + "intervalReporterTest>latency").longValue(), 2);
+        Assert.assertEquals(values.get(MetricsSnapshot.TIMER + "intervalReporterTest>hits").longValue(), 1);
+
+        hits.inc(2);
+        latency.sample(20);
+        clock.advance(10, TimeUnit.SECONDS);
+        reporter.report();
+        Assert.assertEquals(values.get(MetricsSnapshot.COUNTER + "intervalReporterTest>hits").longValue(), 2);
+        Assert.assertEquals(values.get(MetricsSnapshot.ATOMIC_COUNTER + "intervalReporterTest>size").longValue(), 100);
+        Assert.assertEquals(values.get(MetricsSnapshot.TIMER + "intervalReporterTest>latency").longValue(), 1);
+        Assert.assertEquals(maxes.get(MetricsSnapshot.TIMER + "intervalReporterTest>latency"), 20d, 1d);
+        Assert.assertEquals(values.get(MetricsSnapshot.TIMER + "intervalReporterTest>hits").longValue(), 0);
+
+        hits.reset();
+        hits.inc(4);
+        latency.reset();
+        clock.advance(10, TimeUnit.SECONDS);
+        reporter.report();
+        Assert.assertEquals(values.get(MetricsSnapshot.COUNTER + "intervalReporterTest>hits").longValue(), 4);
+        Assert.assertEquals(values.get(MetricsSnapshot.TIMER + "intervalReporterTest>latency").longValue(), 0);
+        Assert.assertTrue(Double.isNaN(maxes.get(MetricsSnapshot.TIMER + "intervalReporterTest>latency")));
+    }
+
+    @Test
+    public void testWindowedTimerCountsDoNotDropWithTheWindow() {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("intervalReporterWindowTest");
+        countersAndTimers.setClock(clock);
+        countersAndTimers.setTimerMode(TimerMode.TIME_WINDOW);
+        countersAndTimers.setTimeWindow(60_000, 6);
+        Timer latency = countersAndTimers.timer("latency", 10);
+
+        long[] reported = new long[1];
+        IntervalReporter reporter = new IntervalReporter(clock, interval -> {
+            for (int row = 0; row < interval.size(); row++) {
+                if (interval.getName(row).equals("intervalReporterWindowTest>latency")) {
+                    reported[0] = interval.getValue(row);
+                }
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            latency.sample(10);
+        }
+        clock.advance(10, TimeUnit.SECONDS);
+        reporter.report();
+        Assert.assertEquals(reported[0], 5);
+
+        clock.advance(20, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            latency.sample(10);
+        }
+        reporter.report();
+        Assert.assertEquals(reported[0], 3);
+
+        clock.advance(35, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            latency.sample(10);
+        }
+        Assert.assertEquals(latency.getSampleCount(), 7, "the first five expired with their slice");
+        reporter.report();
+        Assert.assertEquals(reported[0], 4);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class LogLinearHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Assert.assertEquals(histogram.getNumberOfBuckets(), 1024);
+
+        int lastIndex = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int index = histogram.indexOf(value);
+            Assert.assertTrue(index == lastIndex || index == lastIndex + 1, "value:" + value);
+            Assert.assertTrue(histogram.lowestEquivalentValue(index) <= value, "value:" + value);
+            Assert.assertTrue(histogram.highestEquivalentValue(index) >= value, "value:" + value);
+            lastIndex = index;
+        }
+        Assert.assertEquals(histogram.indexOf(Long.MAX_VALUE), histogram.getNumberOfBuckets() - 1);
+        Assert.assertEquals(histogram.indexOf(-1), 0);
+    }
+
+    @Test
+    public void testRelativeError() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Random random = new Random(1234);
+        for (int i = 0; i < 10_000; i++) {
+            long value = (long) Math.pow(2, random.nextDouble() * 35);
+            int index = histogram.indexOf(value);
+            long width = histogram.highestEquivalentValue(index) - histogram.lowestEquivalentValue(index) + 1;
+            Assert.assertTrue(width <= Math.max(1, value / 32), "value:" + value + " width:" + width);
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Assert.assertTrue(Double.isNaN(histogram.getMin()));
+        Assert.assertTrue(Double.isNaN(histogram.getValueAtPercentile(50)));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 1000);
+        Assert.assertEquals(histogram.getMin(), 1d, 0d);
+        Assert.assertEquals(histogram.getMax(), 1000d, 0d);
+        Assert.assertEquals(histogram.getMean(), 500.5d, 0d);
+        Assert.assertEquals(histogram.getVariance(), 83416.67d, 83416.67d * 0.03d);
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 500d, 500d * 0.03d);
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 990d, 990d * 0.03d);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 1000d, 0d);
+
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertTrue(Double.isNaN(histogram.getMax()));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(histogram.getCount(), 800_000);
+        Assert.assertEquals(histogram.getSum(), 8 * 100 * 499_500L);
+        Assert.assertEquals(histogram.getMax(), 999d, 0d);
+    }
+
+    @Test
+    public void testStripedExtremes() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION_BITS,
+            LogLinearHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, 8);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long base = 1_000L * (t + 1);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(base + (i % 500));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(histogram.getMin(), 1_000d, 0d);
+        Assert.assertEquals(histogram.getMax(), 8_499d, 0d);
+        TimerSnapshot snapshot = histogram.snapshot(0);
+        Assert.assertEquals(snapshot.getMin(), 1_000d, 0d);
+        Assert.assertEquals(snapshot.getMax(), 8_499d, 0d);
+
+        histogram.reset();
+        Assert.assertTrue(Double.isNaN(histogram.getMin()));
+        Assert.assertTrue(Double.isNaN(histogram.getMax()));
+        Assert.assertEquals(histogram.getSum(), 0);
+    }
+}
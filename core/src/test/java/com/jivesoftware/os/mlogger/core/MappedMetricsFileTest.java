@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class MappedMetricsFileTest {
+
+    @Test
+    public void testReaderSeesWriterValues() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("mappedMetricsFileTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.atomicCounter(ValueType.VALUE, "size").set(42);
+        Timer timer = countersAndTimers.timer("latency", 10);
+        timer.sample(10);
+        timer.sample(30);
+
+        File path = File.createTempFile("metrics", ".mmap");
+        path.deleteOnExit();
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        try (MappedMetricsFile file = new MappedMetricsFile(path, 16, 64);
+            MappedMetricsReader reader = new MappedMetricsReader(path)) {
+            file.update(snapshot.capture(countersAndTimers));
+            Assert.assertTrue(reader.refresh());
+            Assert.assertEquals(reader.size(), 3);
+            Assert.assertEquals(reader.getTimestampMillis(), snapshot.getTimestampMillis());
+
+            int hits = reader.indexOf("mappedMetricsFileTest>hits", MetricsSnapshot.COUNTER);
+            Assert.assertEquals(reader.getValue(hits), 3);
+            Assert.assertEquals(reader.getValueType(hits), ValueType.COUNT);
+            int size = reader.indexOf("mappedMetricsFileTest>size", MetricsSnapshot.ATOMIC_COUNTER);
+            Assert.assertEquals(reader.getValue(size), 42);
+            int latency = reader.indexOf("mappedMetricsFileTest>latency", MetricsSnapshot.TIMER);
+            Assert.assertEquals(reader.getValue(latency), 2);
+            Assert.assertEquals(reader.getMean(latency), 20d, 0.001d);
+            Assert.assertEquals(reader.getMax(latency), 30d, 0.001d);
+
+            countersAndTimers.counter(ValueType.COUNT, "hits").inc(4);
+            countersAndTimers.counter(ValueType.COUNT, "misses").inc();
+            file.update(snapshot.capture(countersAndTimers));
+            Assert.assertTrue(reader.refresh());
+            Assert.assertEquals(reader.size(), 4);
+            Assert.assertEquals(reader.indexOf("mappedMetricsFileTest>hits", MetricsSnapshot.COUNTER), hits);
+            Assert.assertEquals(reader.getValue(hits), 7);
+            Assert.assertEquals(reader.getValue(reader.indexOf("mappedMetricsFileTest>misses", MetricsSnapshot.COUNTER)), 1);
+        }
+    }
+
+    @Test
+    public void testFullFileDropsExtraMetrics() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("mappedMetricsFileFullTest");
+        for (int i = 0; i < 5; i++) {
+            countersAndTimers.counter(ValueType.COUNT, "c" + i).inc(i);
+        }
+        File path = File.createTempFile("metrics", ".mmap");
+        path.deleteOnExit();
+        try (MappedMetricsFile file = new MappedMetricsFile(path, 3, 64);
+            MappedMetricsReader reader = new MappedMetricsReader(path)) {
+            file.update(new MetricsSnapshot().capture(countersAndTimers));
+            Assert.assertEquals(file.getSlotsInUse(), 3);
+            Assert.assertTrue(reader.refresh());
+            Assert.assertEquals(reader.size(), 3);
+        }
+    }
+
+    @Test
+    public void testGoneMetricsAreMarkedDeadAndTheirSlotsReused() throws Exception {
+        File path = File.createTempFile("metrics", ".mmap");
+        path.deleteOnExit();
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        try (MappedMetricsFile file = new MappedMetricsFile(path, 2, 64);
+            MappedMetricsReader reader = new MappedMetricsReader(path)) {
+            snapshot.clear(1, 0);
+            snapshot.addCounter(1, "a", MetricsSnapshot.COUNTER, ValueType.COUNT, 1);
+            snapshot.addCounter(2, "b", MetricsSnapshot.COUNTER, ValueType.COUNT, 2);
+            file.update(snapshot);
+            Assert.assertTrue(reader.refresh());
+            int b = reader.indexOf("b", MetricsSnapshot.COUNTER);
+            Assert.assertEquals(reader.getValue(b), 2);
+
+            snapshot.clear(2, 0);
+            snapshot.addCounter(1, "a", MetricsSnapshot.COUNTER, ValueType.COUNT, 1);
+            file.update(snapshot);
+            Assert.assertTrue(reader.refresh());
+            Assert.assertTrue(reader.isDead(b));
+            Assert.assertEquals(reader.indexOf("b", MetricsSnapshot.COUNTER), -1);
+
+            snapshot.clear(3, 0);
+            snapshot.addCounter(1, "a", MetricsSnapshot.COUNTER, ValueType.COUNT, 1);
+            snapshot.addTimer(3, "c", 5, 1, 9, 4, 4, 5, 8, 9, 9);
+            file.update(snapshot);
+            Assert.assertEquals(file.getSlotsInUse(), 2, "c takes the slot b left");
+            Assert.assertTrue(reader.refresh());
+            Assert.assertEquals(reader.indexOf("c", MetricsSnapshot.TIMER), b);
+            Assert.assertFalse(reader.isDead(b));
+            Assert.assertEquals(reader.getValue(b), 5);
+            Assert.assertEquals(reader.getMax(b), 9d, 0d);
+
+            // id 1 given to another name relabels its slot.
+            int a = reader.indexOf("a", MetricsSnapshot.COUNTER);
+            snapshot.clear(4, 0);
+            snapshot.addCounter(1, "d", MetricsSnapshot.COUNTER, ValueType.VALUE, 7);
+            snapshot.addTimer(3, "c", 5, 1, 9, 4, 4, 5, 8, 9, 9);
+            file.update(snapshot);
+            Assert.assertTrue(reader.refresh());
+            Assert.assertEquals(reader.indexOf("a", MetricsSnapshot.COUNTER), -1);
+            Assert.assertEquals(reader.indexOf("d", MetricsSnapshot.COUNTER), a);
+            Assert.assertEquals(reader.getValue(a), 7);
+            Assert.assertEquals(reader.getValueType(a), ValueType.VALUE);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testRejectsUnknownValueTypes() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("mappedMetricsFileCorruptTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc();
+        File path = File.createTempFile("metrics", ".mmap");
+        path.deleteOnExit();
+        try (MappedMetricsFile file = new MappedMetricsFile(path, 16, 64)) {
+            file.update(new MetricsSnapshot().capture(countersAndTimers));
+        }
+        try (RandomAccessFile corrupt = new RandomAccessFile(path, "rw")) {
+            corrupt.seek(MappedMetricsFile.HEADER_LENGTH + 5);
+            corrupt.write(ValueType.values().length);
+        }
+        try (MappedMetricsReader reader = new MappedMetricsReader(path)) {
+            reader.refresh();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        File path = File.createTempFile("metrics", ".mmap");
+        path.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            out.write(new byte[128]);
+        }
+        new MappedMetricsReader(path).close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class MessageFormatterTest {
+
+    @Test
+    public void testFormat() {
+        Assert.assertEquals(MessageFormatter.format("Hi {}.", "there"), "Hi there.");
+        Assert.assertEquals(MessageFormatter.format("{} and {}", 1, 2L), "1 and 2");
+        Assert.assertEquals(MessageFormatter.format("no anchors", "x"), "no anchors");
+        Assert.assertEquals(MessageFormatter.format("{} {}", "only one"), "only one {}");
+        Assert.assertEquals(MessageFormatter.format("Set \\{} is not equal to {}.", "1,2"), "Set {} is not equal to 1,2.");
+        Assert.assertEquals(MessageFormatter.format("File name is C:\\\\{}.", "file.zip"), "File name is C:\\file.zip.");
+        Assert.assertEquals(MessageFormatter.format("{} {} {}", null, true, 'c'), "null true c");
+        Assert.assertEquals(MessageFormatter.format("{}", new int[]{1, 2}), "[1, 2]");
+        Object[] cycle = new Object[2];
+        cycle[0] = "a";
+        cycle[1] = cycle;
+        Assert.assertEquals(MessageFormatter.format("{} {}", cycle, new Object[]{cycle, cycle}), "[a, [...]] [[a, [...]], [a, [...]]]");
+        Assert.assertNull(MessageFormatter.format(null, "x"));
+    }
+
+    @Test
+    public void testNestedFormatting() {
+        Object nested = new Object() {
+            @Override
+            public String toString() {
+                return MessageFormatter.format("inner {}", "value");
+            }
+        };
+        Assert.assertEquals(MessageFormatter.format("outer {} {}", nested, "tail"), "outer inner value tail");
+    }
+
+    @Test
+    public void testFormatToScalarsAllocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        StringBuilder sbuf = new StringBuilder(256);
+        Object[] args = {"user", Integer.valueOf(123_456), Long.valueOf(-7L), Boolean.TRUE};
+        for (int i = 0; i < 100_000; i++) {
+            sbuf.setLength(0);
+            MessageFormatter.formatTo(sbuf, "{} did {} with {} and {}", args);
+        }
+        Assert.assertEquals(sbuf.toString(), "user did 123456 with -7 and true");
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            sbuf.setLength(0);
+            MessageFormatter.formatTo(sbuf, "{} did {} with {} and {}", args);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertTrue(allocated / 100_000 == 0, "allocated " + allocated + " bytes for 100k calls");
+    }
+
+    @Test
+    public void testTemplatesMatchScanning() {
+        Random random = new Random(42);
+        String[] pieces = {"{}", "\\{}", "\\\\{}", "{", "}", "\\", "x", " ", "{{}}"};
+        for (int round = 0; round < 10_000; round++) {
+            StringBuilder pattern = new StringBuilder();
+            for (int p = random.nextInt(8); p >= 0; p--) {
+                pattern.append(pieces[random.nextInt(pieces.length)]);
+            }
+            Object[] args = new Object[random.nextInt(4)];
+            for (int a = 0; a < args.length; a++) {
+                args[a] = "a" + a;
+            }
+            String once = pattern.toString();
+            StringBuilder expected = new StringBuilder();
+            MessageFormatter.scanFormatTo(expected, once, args);
+            Assert.assertEquals(MessageFormatter.arrayFormat(once, args), expected.toString(), once);
+            Assert.assertEquals(MessageFormatter.arrayFormat(once, args), expected.toString(), once);
+        }
+    }
+
+    @Test
+    public void testTemplateInstalledOnSecondSighting() {
+        String pattern = new StringBuilder("built {} per call").toString();
+        Assert.assertEquals(MessageFormatter.countArgumentAnchors(pattern), 1);
+        Assert.assertFalse(MessageFormatter.isCompiled(pattern));
+        Assert.assertEquals(MessageFormatter.arrayFormat(pattern, "once"), pattern.replace("{}", "once"));
+        Assert.assertFalse(MessageFormatter.isCompiled(pattern));
+        Assert.assertEquals(MessageFormatter.arrayFormat(pattern, "twice"), pattern.replace("{}", "twice"));
+        Assert.assertTrue(MessageFormatter.isCompiled(pattern));
+        Assert.assertEquals(MessageFormatter.arrayFormat(pattern, "compiled"), pattern.replace("{}", "compiled"));
+    }
+
+    /**
+     * Not an assertion on speed, just the cost per call of a long pattern with many anchors through the compiled templates and through the scanning
+     * implementation. In the slow group, so only run on demand: mvn test -Dtest=MessageFormatterTest -Dgroups=slow -Dtest.excludedGroups=
+     */
+    @Test(groups = "slow")
+    public void testTemplateThroughput() {
+        String pattern = "request {} from {} for tenant {} took {} ms, read {} rows from {} partitions in {} with {} retries and status {}"
+            + " while the queue held {} entries of {} bytes and the escaped \\{} anchor stayed literal";
+        Object[] args = {"GET /a/b", "10.0.0.1", "acme", 12L, 3_000, 12, "us-west", 0, "ok", 17, 4096};
+        StringBuilder sbuf = new StringBuilder(512);
+        long scanning = Long.MAX_VALUE;
+        long compiled = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) {
+                sbuf.setLength(0);
+                MessageFormatter.scanFormatTo(sbuf, pattern, args);
+            }
+            scanning = Math.min(scanning, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) {
+                sbuf.setLength(0);
+                MessageFormatter.formatTo(sbuf, pattern, args);
+            }
+            compiled = Math.min(compiled, System.nanoTime() - start);
+        }
+        System.out.println("format scanning:" + (scanning / 200_000) + "ns compiled:" + (compiled / 200_000) + "ns per call");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class MetricLoggerTest {
+
+    @Test
+    public void testHandles() {
+        MetricLogger log = new MetricLogger("fooMetricLoggerTest", LoggerSummary.INSTANCE);
+
+        Counter counter = log.counterHandle("counter");
+        counter.inc();
+        log.inc("counter");
+        Assert.assertSame(log.countersAndTimers.getCounterIfAvailable("counter"), counter);
+        Assert.assertEquals(counter.getCount(), 2);
+
+        AtomicCounter atomicCounter = log.atomicCounterHandle("atomic", "tenant1");
+        atomicCounter.inc(5);
+        log.incAtomic("atomic", "tenant1");
+        Assert.assertEquals(atomicCounter.getCount(), 6);
+
+        BucketedCounter bucketedCounter = log.bucketHandle("bucket", 60_000, 10);
+        bucketedCounter.inc();
+        log.incBucket("bucket", 60_000, 10);
+        Assert.assertEquals(bucketedCounter.getCount(), 2);
+
+        Timer timer = log.timerHandle("timer");
+        timer.sample(10);
+        log.startTimer("timer");
+        log.stopTimer("timer");
+        Assert.assertSame(log.countersAndTimers.getTimerIfAvailable("timer"), timer);
+        Assert.assertEquals(timer.getSampleCount(), 2);
+    }
+
+    @Test
+    public void testParameterizedDelivery() {
+        MetricLogger log = new MetricLogger("parameterizedMetricLoggerTest", new LoggerSummary());
+        log.setDelivery(LogDelivery.PARAMETERIZED);
+        org.apache.logging.log4j.core.Logger coreLogger = (org.apache.logging.log4j.core.Logger) log.logger;
+        CapturingAppender appender = new CapturingAppender();
+        List<LogEvent> events = appender.events;
+        appender.start();
+        coreLogger.addAppender(appender);
+        Level level = coreLogger.getLevel();
+        coreLogger.setLevel(Level.DEBUG);
+        try {
+            StringBuilder mutable = new StringBuilder("before");
+            log.info("value {} and {}", mutable, 7);
+            log.debug("debug {}", "x");
+            IllegalStateException thrown = new IllegalStateException("boom");
+            log.error("failed {}", new Object[]{"op"}, thrown);
+
+            Assert.assertEquals(events.size(), 3);
+            Assert.assertTrue(events.get(0).getMessage() instanceof ParameterizedMessage);
+            Assert.assertEquals(events.get(0).getMessage().getFormat(), "value {} and {}");
+            Assert.assertEquals(events.get(0).getLoggerFqcn(), MetricLogger.class.getName());
+            Assert.assertEquals(events.get(1).getMessage().getFormattedMessage(), "debug x");
+            Assert.assertSame(events.get(2).getThrown(), thrown);
+            Assert.assertEquals(events.get(2).getMessage().getFormattedMessage(), "failed op");
+
+            mutable.setLength(0);
+            mutable.append("after");
+            String[] infos = log.loggerSummary.lastNInfos.get();
+            Assert.assertTrue(infos[infos.length - 1].endsWith(" value before and 7"), infos[infos.length - 1]);
+            String[] errors = log.loggerSummary.lastNErrors.get();
+            Assert.assertTrue(errors[errors.length - 1].endsWith(" failed op"), errors[errors.length - 1]);
+        } finally {
+            coreLogger.removeAppender(appender);
+            coreLogger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void testFormattedDeliveryIsTheDefault() {
+        MetricLogger log = new MetricLogger("formattedMetricLoggerTest", new LoggerSummary());
+        Assert.assertEquals(log.getDelivery(), LogDelivery.FORMATTED);
+        log.warn("warned {}", "once");
+        String[] warns = log.loggerSummary.lastNWarns.get();
+        Assert.assertTrue(warns[warns.length - 1].endsWith(" warned once"), warns[warns.length - 1]);
+        log.loggerSummary.reset();
+        Assert.assertNull(log.loggerSummary.lastNWarns.get()[0]);
+    }
+
+    @Test
+    public void testSuppliersAreLazy() {
+        LoggerSummary loggerSummary = new LoggerSummary();
+        MetricLogger log = new MetricLogger("supplierMetricLoggerTest", loggerSummary);
+        org.apache.logging.log4j.core.Logger coreLogger = (org.apache.logging.log4j.core.Logger) log.logger;
+        Level level = coreLogger.getLevel();
+        coreLogger.setLevel(Level.INFO);
+        try {
+            assertSuppliersAreLazy(log, loggerSummary);
+        } finally {
+            coreLogger.setLevel(level);
+        }
+    }
+
+    private static void assertSuppliersAreLazy(MetricLogger log, LoggerSummary loggerSummary) {
+        AtomicInteger calls = new AtomicInteger();
+
+        log.debug("filtered {}", () -> calls.incrementAndGet());
+        Assert.assertEquals(calls.get(), 0);
+        Assert.assertEquals(loggerSummary.debugs.sum(), 0);
+
+        log.info("only {} of {}", () -> calls.incrementAndGet(), () -> "two", () -> calls.addAndGet(100));
+        Assert.assertEquals(calls.get(), 1);
+        Assert.assertEquals(loggerSummary.infos.sum(), 1);
+        Assert.assertEquals(log.countersAndTimers.getCounterIfAvailable("logged.infos").getCount(), 1);
+        String[] infos = loggerSummary.lastNInfos.get();
+        Assert.assertTrue(infos[infos.length - 1].endsWith(" only 1 of two"), infos[infos.length - 1]);
+
+        log.warn("escaped \\{} then {}", () -> "used", () -> calls.addAndGet(100));
+        log.error("{} and {}", () -> null, () -> {
+            throw new IllegalStateException("boom");
+        });
+        Assert.assertEquals(calls.get(), 1);
+        String[] warns = loggerSummary.lastNWarns.get();
+        Assert.assertTrue(warns[warns.length - 1].endsWith(" escaped {} then used"), warns[warns.length - 1]);
+        String[] errors = loggerSummary.lastNErrors.get();
+        Assert.assertTrue(errors[errors.length - 1].contains(" null and [FAILED get(): java.lang.IllegalStateException: boom]"),
+            errors[errors.length - 1]);
+    }
+
+    private static final class CapturingAppender extends AbstractAppender {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+        private CapturingAppender() {
+            super("capture", null, null);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            events.add(event);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.nio.ByteBuffer;
+import java.util.Map.Entry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class MetricsSnapshotEncoderTest {
+
+    @Test
+    public void testRoundTrip() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("encoderRoundTripTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.counter(ValueType.VALUE, "negative").set(-12345);
+        countersAndTimers.atomicCounter(ValueType.RATE, "rate").set(Long.MAX_VALUE);
+        countersAndTimers.timer("window", 10).sample(7);
+        countersAndTimers.timer("empty", 10);
+        countersAndTimers.setTimerMode(TimerMode.HISTOGRAM);
+        Timer histogram = countersAndTimers.timer("histogram", 10);
+        for (int i = 0; i < 1_000; i++) {
+            histogram.sample(i * i);
+        }
+        countersAndTimers.getTenantMetric("tenant>with:odd names").counter(ValueType.COUNT, "hits").inc();
+
+        MetricsSnapshotEncoder encoder = new MetricsSnapshotEncoder();
+        MetricsSnapshotDecoder decoder = new MetricsSnapshotDecoder();
+        MetricsSnapshot expected = new MetricsSnapshot().capture(countersAndTimers);
+        MetricsSnapshot decoded = new MetricsSnapshot();
+        for (int message = 0; message < 2; message++) {
+            decoder.decode(encoder.encode(expected), decoded);
+            Assert.assertEquals(decoded.getTimestampMillis(), expected.getTimestampMillis());
+            Assert.assertEquals(decoded.size(), expected.size());
+            for (int row = 0; row < expected.size(); row++) {
+                Assert.assertEquals(decoded.getName(row), expected.getName(row));
+                Assert.assertEquals(decoded.getKind(row), expected.getKind(row));
+                Assert.assertEquals(decoded.getValueType(row), expected.getValueType(row));
+                Assert.assertEquals(decoded.getValue(row), expected.getValue(row));
+                Assert.assertEquals(decoded.getMean(row), expected.getMean(row));
+                Assert.assertEquals(decoded.get99ThPercentile(row), expected.get99ThPercentile(row));
+                Assert.assertEquals(decoded.getBucketLength(row), expected.getBucketLength(row));
+                Assert.assertEquals(decoded.getSum(row) == expected.getSum(row) || expected.getBucketLength(row) == 0, true);
+                for (int i = 0; i < expected.getBucketLength(row); i++) {
+                    Assert.assertEquals(decoded.getBucket(row, i), expected.getBucket(row, i));
+                }
+            }
+        }
+
+        MetricsSnapshotDecoder late = new MetricsSnapshotDecoder();
+        try {
+            late.decode(encoder.encode(expected), decoded);
+            Assert.fail("names were only sent in the first message");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        encoder.reset();
+        late.decode(encoder.encode(expected), decoded);
+        Assert.assertEquals(decoded.size(), expected.size());
+    }
+
+    @Test
+    public void testReleasedIdIsResentWithItsNewName() {
+        MetricsSnapshotEncoder encoder = new MetricsSnapshotEncoder();
+        MetricsSnapshotDecoder decoder = new MetricsSnapshotDecoder();
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        MetricsSnapshot decoded = new MetricsSnapshot();
+
+        int first = MetricNames.id("encoderReuseTest>tenant>gone>hits");
+        snapshot.clear(0, 0);
+        snapshot.addCounter(first, MetricNames.name(first), MetricsSnapshot.COUNTER, ValueType.COUNT, 1);
+        decoder.decode(encoder.encode(snapshot), decoded);
+        Assert.assertEquals(decoded.getName(0), "encoderReuseTest>tenant>gone>hits");
+
+        MetricNames.release(first);
+        // as if the released id had been handed to a new name.
+        snapshot.clear(0, 0);
+        snapshot.addCounter(first, "encoderReuseTest>tenant>new>hits", MetricsSnapshot.COUNTER, ValueType.COUNT, 2);
+        decoder.decode(encoder.encode(snapshot), decoded);
+        Assert.assertEquals(decoded.getName(0), "encoderReuseTest>tenant>new>hits");
+        Assert.assertEquals(decoded.getValue(0), 2);
+        decoder.reset();
+    }
+
+    @Test
+    public void testDecodingDoesNotInternNames() {
+        MetricsSnapshotEncoder encoder = new MetricsSnapshotEncoder();
+        MetricsSnapshotDecoder decoder = new MetricsSnapshotDecoder();
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        MetricsSnapshot decoded = new MetricsSnapshot();
+
+        snapshot.clear(0, 0);
+        snapshot.addCounter(1_000, "encoderRemoteTest>hits", MetricsSnapshot.COUNTER, ValueType.COUNT, 5);
+        decoder.decode(encoder.encode(snapshot), decoded);
+        Assert.assertEquals(decoded.getNameId(0), 1_000);
+        Assert.assertEquals(decoded.getName(0), "encoderRemoteTest>hits");
+        Assert.assertEquals(decoded.getValue(0), 5);
+        for (int id = 0; id < MetricNames.size(); id++) {
+            Assert.assertNotEquals(MetricNames.name(id), "encoderRemoteTest>hits");
+        }
+    }
+
+    @Test
+    public void testMalformedInputIsIllegalArgument() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("encoderMalformedTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.setTimerMode(TimerMode.HISTOGRAM);
+        Timer histogram = countersAndTimers.timer("histogram", 10);
+        for (int i = 0; i < 100; i++) {
+            histogram.sample(i * i);
+        }
+        ByteBuffer message = new MetricsSnapshotEncoder().encode(new MetricsSnapshot().capture(countersAndTimers));
+        MetricsSnapshot decoded = new MetricsSnapshot();
+        for (int length = 0; length < message.remaining(); length++) {
+            ByteBuffer truncated = message.duplicate();
+            truncated.limit(truncated.position() + length);
+            try {
+                new MetricsSnapshotDecoder().decode(truncated, decoded);
+                Assert.fail("decoded a message truncated to:" + length);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        byte[] runPastLength = {
+            MetricsSnapshotEncoder.MAGIC_0, MetricsSnapshotEncoder.MAGIC_1, MetricsSnapshotEncoder.VERSION, 0, 0,
+            1, 0, 1, 'a',
+            1, 0, (byte) (MetricsSnapshot.TIMER | MetricsSnapshotEncoder.HAS_BUCKETS), 0,
+            5, 4, 0, 0, 10};
+        try {
+            new MetricsSnapshotDecoder().decode(ByteBuffer.wrap(runPastLength), decoded);
+            Assert.fail("decoded a bucket run past the bucket length");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts the binary encoding of a message that only refers to already sent names is at least an order of magnitude smaller than the json each
+     * metric can produce.
+     */
+    @Test
+    public void testSizeAgainstJson() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("encoderSizeTest");
+        for (int i = 0; i < 20_000; i++) {
+            countersAndTimers.getTenantMetric("tenant" + i).counter(ValueType.COUNT, "requests").inc(i);
+        }
+        MetricsSnapshot snapshot = new MetricsSnapshot().capture(countersAndTimers);
+        MetricsSnapshotEncoder encoder = new MetricsSnapshotEncoder();
+        int firstBytes = encoder.encode(snapshot).remaining();
+        int binaryBytes = encoder.encode(snapshot).remaining();
+
+        long jsonBytes = 0;
+        for (CountersAndTimers tenant : countersAndTimers.getAllTenantSpecificMetrics()) {
+            for (Entry<String, Counter> counter : tenant.getCounters()) {
+                jsonBytes += ("\"" + tenant.getName() + ">" + counter.getKey() + "\":" + counter.getValue().toJsonString()).length();
+            }
+        }
+
+        Assert.assertTrue(binaryBytes * 10 < jsonBytes, "binary:" + binaryBytes + " json:" + jsonBytes);
+        Assert.assertTrue(firstBytes < jsonBytes);
+    }
+}
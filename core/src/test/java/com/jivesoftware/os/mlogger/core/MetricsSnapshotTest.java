@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class MetricsSnapshotTest {
+
+    @Test
+    public void testCapture() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("metricsSnapshotTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.atomicCounter(ValueType.VALUE, "size").set(42);
+        countersAndTimers.bucketedCounter(ValueType.RATE, "recent", 1000, 10).inc(5);
+        Timer timer = countersAndTimers.timer("latency", 10);
+        timer.sample(10);
+        timer.sample(30);
+        countersAndTimers.getTenantMetric("acme").counter(ValueType.COUNT, "hits").inc(7);
+
+        MetricsSnapshot snapshot = new MetricsSnapshot().capture(countersAndTimers);
+        Assert.assertEquals(snapshot.size(), 5);
+        Map<String, Integer> rows = new HashMap<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            rows.put(snapshot.getName(row), row);
+            Assert.assertEquals(MetricNames.id(snapshot.getName(row)), snapshot.getNameId(row));
+        }
+        int hits = rows.get("metricsSnapshotTest>hits");
+        Assert.assertEquals(snapshot.getKind(hits), MetricsSnapshot.COUNTER);
+        Assert.assertEquals(snapshot.getValue(hits), 3);
+        Assert.assertTrue(Double.isNaN(snapshot.getMean(hits)));
+
+        int size = rows.get("metricsSnapshotTest>size");
+        Assert.assertEquals(snapshot.getKind(size), MetricsSnapshot.ATOMIC_COUNTER);
+        Assert.assertEquals(snapshot.getValueType(size), ValueType.VALUE);
+        Assert.assertEquals(snapshot.getValue(size), 42);
+
+        int recent = rows.get("metricsSnapshotTest>recent");
+        Assert.assertEquals(snapshot.getKind(recent), MetricsSnapshot.BUCKETED_COUNTER);
+        Assert.assertEquals(snapshot.getValue(recent), 5);
+
+        int latency = rows.get("metricsSnapshotTest>latency");
+        Assert.assertEquals(snapshot.getKind(latency), MetricsSnapshot.TIMER);
+        Assert.assertEquals(snapshot.getValue(latency), 2);
+        Assert.assertEquals(snapshot.getMax(latency), 30d);
+        Assert.assertEquals(snapshot.getMean(latency), 20d);
+
+        Assert.assertEquals(snapshot.getValue(rows.get("metricsSnapshotTest>tenant>acme>hits")), 7);
+
+        snapshot.capture();
+        Assert.assertTrue(snapshot.size() >= 5);
+    }
+
+    @Test
+    public void testRecaptureReusesColumns() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("metricsSnapshotReuseTest");
+        for (int i = 0; i < 1_000; i++) {
+            countersAndTimers.counter(ValueType.COUNT, "counter" + i).inc(i);
+        }
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.capture(countersAndTimers);
+        snapshot.capture(countersAndTimers);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++) {
+            snapshot.capture(countersAndTimers);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertEquals(snapshot.size(), 1_000);
+        Assert.assertTrue(allocated < 100 * 1_000, "allocated:" + allocated);
+    }
+}
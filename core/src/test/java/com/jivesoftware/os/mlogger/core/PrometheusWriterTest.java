@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class PrometheusWriterTest {
+
+    @Test
+    public void testExposition() throws Exception {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("prometheusWriterTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(3);
+        countersAndTimers.getTenantMetric("acme").counter(ValueType.COUNT, "hits").inc(7);
+        countersAndTimers.atomicCounter(ValueType.VALUE, "queue>depth").set(-4);
+        Timer timer = countersAndTimers.timer("latency", 10);
+        timer.sample(10);
+        timer.sample(31);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PrometheusWriter("svc_", false).write(new MetricsSnapshot().capture(countersAndTimers), out);
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(text.contains("# TYPE svc_hits_total counter\n"), text);
+        Assert.assertEquals(text.indexOf("# TYPE svc_hits_total"), text.lastIndexOf("# TYPE svc_hits_total"), text);
+        Assert.assertTrue(text.contains("svc_hits_total{leaf0=\"prometheusWriterTest\"} 3\n"), text);
+        Assert.assertTrue(text.contains("svc_hits_total{leaf0=\"prometheusWriterTest\",tenant=\"acme\"} 7\n"), text);
+        Assert.assertTrue(text.contains("# TYPE svc_depth gauge\n"), text);
+        Assert.assertTrue(text.contains("svc_depth{leaf0=\"prometheusWriterTest\",leaf1=\"queue\"} -4\n"), text);
+        Assert.assertTrue(text.contains("# TYPE svc_latency_timer summary\n"), text);
+        Assert.assertTrue(text.contains("svc_latency_timer{leaf0=\"prometheusWriterTest\",quantile=\"0.5\"} 20.5\n"), text);
+        Assert.assertTrue(text.contains("svc_latency_timer_sum{leaf0=\"prometheusWriterTest\"} 41\n"), text);
+        Assert.assertTrue(text.contains("svc_latency_timer_count{leaf0=\"prometheusWriterTest\"} 2\n"), text);
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.clear(0, 0);
+        LogLinearHistogram histogram = new LogLinearHistogram(2, 1000);
+        histogram.record(1);
+        histogram.record(1);
+        histogram.record(100);
+        int nameId = MetricNames.id("prometheusHistogramTest>\"odd\" name");
+        int row = snapshot.addTimer(nameId, MetricNames.name(nameId), 3, histogram.snapshot(0));
+        int offset = snapshot.reserveBuckets(row, histogram.getPrecisionBits(), histogram.getNumberOfBuckets(), histogram.getSum());
+        histogram.copyCounts(snapshot.getBuckets(), offset);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PrometheusWriter("", true, 1024).write(snapshot, Channels.newChannel(out));
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertEquals(text, "# TYPE _odd__name_timer histogram\n"
+            + "_odd__name_timer_bucket{leaf0=\"prometheusHistogramTest\",le=\"1\"} 2\n"
+            + "_odd__name_timer_bucket{leaf0=\"prometheusHistogramTest\",le=\"" + histogram.highestEquivalentValue(histogram.indexOf(100)) + "\"} 3\n"
+            + "_odd__name_timer_bucket{leaf0=\"prometheusHistogramTest\",le=\"+Inf\"} 3\n"
+            + "_odd__name_timer_sum{leaf0=\"prometheusHistogramTest\"} 102\n"
+            + "_odd__name_timer_count{leaf0=\"prometheusHistogramTest\"} 3\n");
+    }
+
+    @Test
+    public void testCountAndTimeSharingAName() throws Exception {
+        MetricLogger logger = MetricLoggerFactory.getLogger("prometheusCountAndTimeTest");
+        CountAndTime countAndTime = new CountAndTime(logger, "calls");
+        countAndTime.start();
+        countAndTime.stop();
+        CountersAndTimers countersAndTimers = logger.countersAndTimers;
+
+        PrometheusWriter writer = new PrometheusWriter("svc_", false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new MetricsSnapshot().capture(countersAndTimers), out);
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(text.contains("# TYPE svc_calls_total counter\n"), text);
+        Assert.assertTrue(text.contains("svc_calls_total{leaf0=\"prometheusCountAndTimeTest\"} 1\n"), text);
+        Assert.assertTrue(text.contains("# TYPE svc_calls_timer summary\n"), text);
+        Assert.assertTrue(text.contains("svc_calls_timer_count{leaf0=\"prometheusCountAndTimeTest\"} 1\n"), text);
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                String family = line.substring(0, line.lastIndexOf(' ') + 1);
+                Assert.assertEquals(text.indexOf(family), text.lastIndexOf(family), text);
+            }
+        }
+
+        int misses = writer.familyMisses;
+        out.reset();
+        writer.write(new MetricsSnapshot().capture(countersAndTimers), out);
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), text);
+        Assert.assertEquals(writer.familyMisses, misses, "a second scrape of the same metrics should hit the family cache");
+    }
+
+    /**
+     * Asserts a scrape allocates next to nothing once the names are cached.
+     */
+    @Test
+    public void testScrapeAllocation() throws Exception {
+        int[] nameIds = new int[1_000];
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.clear(0, 0);
+        for (int i = 0; i < nameIds.length; i++) {
+            nameIds[i] = MetricNames.id("prometheusScrapeTest>tenant>t" + i + ">requests");
+            snapshot.addCounter(nameIds[i], MetricNames.name(nameIds[i]), MetricsSnapshot.COUNTER, ValueType.COUNT, i);
+        }
+        try {
+            PrometheusWriter writer = new PrometheusWriter();
+            CountingOutputStream out = new CountingOutputStream();
+            writer.write(snapshot, out);
+            long bytes = out.count;
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int round = 0; round < 10; round++) {
+                out.count = 0;
+                writer.write(snapshot, out);
+            }
+            allocated = (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated) / 10;
+            Assert.assertEquals(out.count, bytes);
+            Assert.assertTrue(allocated < 4 * 1024, "allocated " + allocated);
+        } finally {
+            for (int nameId : nameIds) {
+                MetricNames.release(nameId);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class SpaceSavingSketchTest {
+
+    @Test
+    public void testErrorBounds() {
+        List<String> evicted = new ArrayList<>();
+        SpaceSavingSketch sketch = new SpaceSavingSketch(3, 12, evicted::add);
+        Map<String, Long> truth = new HashMap<>();
+        Random random = new Random(1234);
+        for (int i = 0; i < 100_000; i++) {
+            String item;
+            int roll = random.nextInt(100);
+            if (roll < 30) {
+                item = "a";
+            } else if (roll < 50) {
+                item = "b";
+            } else if (roll < 60) {
+                item = "c";
+            } else {
+                item = "tail" + random.nextInt(10_000);
+            }
+            truth.merge(item, 1L, Long::sum);
+            sketch.offer(item, 1);
+        }
+
+        List<SpaceSavingSketch.Estimate> top = sketch.topK();
+        Assert.assertEquals(top.size(), 3);
+        Assert.assertEquals(top.get(0).getItem(), "a");
+        Assert.assertEquals(top.get(1).getItem(), "b");
+        Assert.assertEquals(top.get(2).getItem(), "c");
+        for (SpaceSavingSketch.Estimate estimate : top) {
+            long actual = truth.get(estimate.getItem());
+            Assert.assertTrue(estimate.getCount() >= actual);
+            Assert.assertTrue(estimate.getCount() - estimate.getError() <= actual);
+        }
+        Assert.assertTrue(sketch.getThreshold() > 0);
+        Assert.assertTrue(sketch.getThreshold() <= top.get(2).getCount());
+        Assert.assertFalse(evicted.isEmpty());
+        Assert.assertFalse(evicted.contains("a"));
+
+        sketch.clear();
+        Assert.assertTrue(sketch.topK().isEmpty());
+        Assert.assertEquals(sketch.getThreshold(), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testBufferedRecords() {
+        List<String> evicted = new ArrayList<>();
+        SpaceSavingSketch[] sketch = new SpaceSavingSketch[1];
+        sketch[0] = new SpaceSavingSketch(1, 4, item -> {
+            Assert.assertFalse(Thread.holdsLock(sketch[0]));
+            evicted.add(item);
+        });
+        for (int i = 0; i < SpaceSavingSketch.BATCH_SIZE - 1; i++) {
+            sketch[0].record("a");
+        }
+        Assert.assertFalse(sketch[0].isHeavyHitter("a"), "nothing is a heavy hitter before the first batch");
+        Assert.assertEquals(sketch[0].getThreshold(), Long.MAX_VALUE);
+
+        sketch[0].record("b");
+        Assert.assertTrue(sketch[0].isHeavyHitter("a"));
+        Assert.assertFalse(sketch[0].isHeavyHitter("b"));
+        Assert.assertEquals(sketch[0].topK().get(0).getCount(), SpaceSavingSketch.BATCH_SIZE - 1);
+
+        for (int i = 0; i < 10; i++) {
+            sketch[0].record("tail" + i);
+        }
+        sketch[0].flush();
+        Assert.assertFalse(evicted.isEmpty());
+        Assert.assertFalse(evicted.contains("a"));
+        Assert.assertTrue(sketch[0].isHeavyHitter("a"));
+    }
+
+    @Test
+    public void testAgedRecordsAreApplied() throws InterruptedException {
+        ManualClock now = new ManualClock(1_000);
+        SpaceSavingSketch sketch = new SpaceSavingSketch(1, 4, item -> {
+        }, now);
+        sketch.record("a");
+        Assert.assertFalse(sketch.isHeavyHitter("a"));
+
+        now.advance(SpaceSavingSketch.MAX_BATCH_AGE_MILLIS, TimeUnit.MILLISECONDS);
+        sketch.record("a");
+        Assert.assertTrue(sketch.isHeavyHitter("a"), "a batch is applied once its oldest record is old enough");
+
+        // a thread that records once and ends leaves its record in a shared stripe, which topK applies.
+        Thread once = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                sketch.record("b");
+            }
+        });
+        once.start();
+        once.join();
+        Assert.assertEquals(sketch.topK().get(0).getItem(), "b");
+        Assert.assertTrue(sketch.isHeavyHitter("b"));
+    }
+
+    @Test
+    public void testHeavyHittersFollowThreshold() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(5, 20, item -> {
+        });
+        Random random = new Random(4321);
+        for (int i = 0; i < 50_000; i++) {
+            int roll = random.nextInt(100);
+            sketch.record(roll < 50 ? "hot" + (roll % 5) : "tail" + random.nextInt(1_000));
+        }
+        sketch.flush();
+        List<SpaceSavingSketch.Estimate> top = sketch.topK();
+        for (SpaceSavingSketch.Estimate estimate : top) {
+            Assert.assertTrue(estimate.getItem().startsWith("hot"), estimate.getItem());
+            Assert.assertTrue(sketch.isHeavyHitter(estimate.getItem()), estimate.getItem());
+            Assert.assertTrue(estimate.getCount() >= sketch.getThreshold());
+        }
+        Assert.assertFalse(sketch.isHeavyHitter("tail1"));
+        Assert.assertFalse(sketch.isHeavyHitter("missing"));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class StatsDSinkTest {
+
+    @Test
+    public void testLines() throws Exception {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("statsDSinkTest");
+        countersAndTimers.counter(ValueType.COUNT, "hits").inc(5);
+        countersAndTimers.atomicCounter(ValueType.VALUE, "queue size").set(42);
+        countersAndTimers.atomicCounter(ValueType.VALUE, "balance").set(-7);
+        Timer timer = countersAndTimers.timer("latency", 10);
+        timer.sample(10);
+        timer.sample(31);
+
+        try (LoopbackServer server = new LoopbackServer();
+            StatsDSink sink = new StatsDSink(server.address(), "svc.", StatsDSink.DEFAULT_MAX_PACKET_SIZE)) {
+            IntervalReporter reporter = new IntervalReporter(clock, sink);
+            clock.advance(10, TimeUnit.SECONDS);
+            reporter.report();
+            countersAndTimers.counter(ValueType.COUNT, "hits").inc(2);
+            clock.advance(10, TimeUnit.SECONDS);
+            reporter.report();
+
+            List<String> lines = server.receive(sink.getSentDatagrams());
+            Assert.assertEquals(lines.size(), sink.getSentLines());
+            Assert.assertEquals(sink.getDroppedDatagrams(), 0);
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.hits:5|c"), lines.toString());
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.hits:2|c"), lines.toString());
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.queue_size:42|g"), lines.toString());
+            int balance = lines.indexOf("svc.statsDSinkTest.balance:-7|g");
+            Assert.assertTrue(balance > 0, lines.toString());
+            Assert.assertEquals(lines.get(balance - 1), "svc.statsDSinkTest.balance:0|g");
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.latency.count:2|c"), lines.toString());
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.latency.mean:20.5|g"), lines.toString());
+            Assert.assertTrue(lines.contains("svc.statsDSinkTest.latency.count:0|c"), lines.toString());
+        }
+    }
+
+    /**
+     * Sends 10k counters, checks every datagram fits the packet size and every line arrives, then that an interval of 10k lines is sent well within
+     * a generous bound of one second.
+     */
+    @Test
+    public void testPackingAndThroughput() throws Exception {
+        int[] nameIds = new int[10_000];
+        Arrays.fill(nameIds, -1);
+        MetricsSnapshot interval = new MetricsSnapshot();
+        interval.clear(0, 10_000);
+        try {
+            for (int i = 0; i < nameIds.length; i++) {
+                nameIds[i] = MetricNames.id("statsDThroughputTest>tenant>t" + i + ">requests");
+                interval.addCounter(nameIds[i], MetricNames.name(nameIds[i]), MetricsSnapshot.COUNTER, ValueType.COUNT, i);
+            }
+            try (LoopbackServer server = new LoopbackServer();
+                StatsDSink sink = new StatsDSink(server.address(), "", 512)) {
+                sink.report(interval);
+                List<String> lines = server.receive(sink.getSentDatagrams());
+                Assert.assertEquals(sink.getDroppedDatagrams(), 0);
+                Assert.assertEquals(lines.size(), 10_000);
+                Assert.assertEquals(lines.get(9_999), "statsDThroughputTest.tenant.t9999.requests:9999|c");
+                Assert.assertTrue(server.largest <= 512, "largest " + server.largest);
+                Assert.assertTrue(sink.getSentDatagrams() <= 10_000 / 9, "datagrams " + sink.getSentDatagrams());
+
+                int rounds = 10;
+                long start = System.nanoTime();
+                for (int round = 0; round < rounds; round++) {
+                    sink.report(interval);
+                    server.receive(sink.getSentDatagrams() - server.datagrams);
+                }
+                long nanos = (System.nanoTime() - start) / rounds;
+                System.out.println("statsd lines:" + interval.size() + " datagrams:" + server.datagrams / (rounds + 1) + " " + (nanos / 1_000) + "us");
+                Assert.assertEquals(sink.getDroppedDatagrams(), 0);
+                Assert.assertEquals(sink.getSentLines(), (rounds + 1) * 10_000L);
+                Assert.assertTrue(nanos < TimeUnit.SECONDS.toNanos(1), "interval of 10k lines took " + (nanos / 1_000) + "us");
+            }
+        } finally {
+            for (int nameId : nameIds) {
+                MetricNames.release(nameId);
+            }
+        }
+    }
+
+    private static final class LoopbackServer implements AutoCloseable {
+
+        private final DatagramChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long datagrams;
+        private int largest;
+
+        private LoopbackServer() throws Exception {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        }
+
+        private InetSocketAddress address() throws Exception {
+            return (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        private List<String> receive(long count) throws Exception {
+            List<String> lines = new ArrayList<>();
+            for (long i = 0; i < count; i++) {
+                buffer.clear();
+                channel.receive(buffer);
+                datagrams++;
+                buffer.flip();
+                largest = Math.max(largest, buffer.remaining());
+                for (String line : StandardCharsets.UTF_8.decode(buffer).toString().split("\n")) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
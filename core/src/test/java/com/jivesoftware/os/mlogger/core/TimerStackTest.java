@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class TimerStackTest {
+
+    @Test
+    public void testPushAndPop() {
+        CountersAndTimers owner = CountersAndTimers.getOrCreate("TimerStackPushTest");
+        long now = owner.getClock().currentTimeMillis();
+        TimerStack stack = new TimerStack();
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(stack.push(owner, i << 1, now + i));
+        }
+        Assert.assertFalse(stack.push(owner, 3 << 1, now + 999));
+        Assert.assertEquals(stack.size(), 20);
+
+        Assert.assertEquals(stack.pop(19 << 1), now + 19);
+        Assert.assertEquals(stack.pop(3 << 1), now + 3);
+        Assert.assertEquals(stack.pop(3 << 1), Long.MIN_VALUE);
+        Assert.assertEquals(stack.pop(4 << 1), now + 4);
+        Assert.assertEquals(stack.pop(2 << 1), now + 2);
+        Assert.assertEquals(stack.size(), 16);
+    }
+
+    @Test
+    public void testRecordedKey() {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("TimerStackTest");
+        countersAndTimers.setClock(clock);
+
+        countersAndTimers.startTimer("outer");
+        clock.advance(5, TimeUnit.MILLISECONDS);
+        countersAndTimers.startTimer("inner");
+        countersAndTimers.startTimer("inner");
+        clock.advance(10, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("outer", "recordedOuter", 10).getLastSample(), 15);
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("inner", "recordedInner", 10).getLastSample(), 10);
+        Assert.assertNotNull(countersAndTimers.getTimerIfAvailable("recordedOuter"));
+        Assert.assertNull(countersAndTimers.getTimerIfAvailable("outer"));
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("inner", "recordedInner", 10).getSampleCount(), 0);
+    }
+
+    @Test
+    public void testAbandonedTimers() {
+        ManualClock clock = new ManualClock(1_000_000);
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("TimerStackAbandonedTest");
+        countersAndTimers.setClock(clock);
+        countersAndTimers.setAbandonedTimerMaxAgeMillis(1_000);
+
+        countersAndTimers.startTimer("a");
+        clock.advance(500, TimeUnit.MILLISECONDS);
+        countersAndTimers.startTimer("a");
+        Assert.assertNull(countersAndTimers.getCounterIfAvailable(CountersAndTimers.ABANDONED_TIMERS));
+
+        clock.advance(1_000, TimeUnit.MILLISECONDS);
+        countersAndTimers.startTimer("a");
+        Assert.assertEquals(countersAndTimers.getCounterIfAvailable(CountersAndTimers.ABANDONED_TIMERS).getCount(), 1);
+        clock.advance(5, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("a", "a", 10).getLastSample(), 5);
+
+        countersAndTimers.startTimer("b");
+        countersAndTimers.startNanoTimer("c");
+        clock.advance(TimerStack.SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        countersAndTimers.startTimer("d");
+        Assert.assertEquals(countersAndTimers.getCounterIfAvailable(CountersAndTimers.ABANDONED_TIMERS).getCount(), 3);
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("b", "b", 10).getSampleCount(), 0);
+        Assert.assertEquals(countersAndTimers.stopNanoTimer("c", "c"), -1);
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("d", "d", 10).getLastSample(), 0);
+
+        countersAndTimers.setAbandonedTimerMaxAgeMillis(0);
+        countersAndTimers.startTimer("e");
+        clock.advance(1, TimeUnit.DAYS);
+        countersAndTimers.startTimer("e");
+        Assert.assertEquals(countersAndTimers.stopAndGetTimer("e", "e", 10).getLastSample(), TimeUnit.DAYS.toMillis(1));
+        Assert.assertEquals(countersAndTimers.getCounterIfAvailable(CountersAndTimers.ABANDONED_TIMERS).getCount(), 3);
+    }
+
+    @Test
+    public void testSweepDropsEvictedOwners() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("TimerStackEvictedTest");
+        countersAndTimers.setMaxTenants(1);
+        CountersAndTimers evicted = countersAndTimers.getTenantMetric("a");
+        long now = evicted.getClock().currentTimeMillis();
+        TimerStack stack = new TimerStack();
+        stack.push(evicted, 1 << 1, now);
+        stack.push(countersAndTimers, 2 << 1, now);
+
+        countersAndTimers.getTenantMetric("b");
+        stack.sweep();
+        Assert.assertEquals(stack.size(), 1);
+        Assert.assertEquals(stack.pop(2 << 1), now);
+    }
+
+    @Test
+    public void testSteadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("TimerStackAllocationTest");
+        countersAndTimers.setTimerMode(TimerMode.HISTOGRAM);
+        for (int i = 0; i < 100_000; i++) {
+            countersAndTimers.startNanoTimer("a");
+            countersAndTimers.startNanoTimer("b");
+            countersAndTimers.stopNanoTimer("b", "b");
+            countersAndTimers.stopNanoTimer("a", "a");
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            countersAndTimers.startNanoTimer("a");
+            countersAndTimers.startNanoTimer("b");
+            countersAndTimers.stopNanoTimer("b", "b");
+            countersAndTimers.stopNanoTimer("a", "a");
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertTrue(allocated < 100_000, "allocated:" + allocated);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.jivesoftware.os.mlogger.core;
 
+import java.util.Random;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -44,6 +45,54 @@ public class TimerTest {
 
     }
 
+    @Test
+    public void testHistogramMode() {
+        Timer timer = new Timer(new LogLinearHistogram());
+
+        timer.sample(100);
+        timer.sample(200);
+        timer.sample(300);
+
+        Assert.assertEquals(timer.getSampleCount(), 3);
+        Assert.assertEquals(timer.getLastSample(), 300);
+        Assert.assertEquals(timer.getMin(), 100d, 0.01d);
+        Assert.assertEquals(timer.getMax(), 300d, 0.01d);
+        Assert.assertEquals(timer.getMean(), 200d, 0.01d);
+        Assert.assertEquals(timer.get50ThPercentile(), 200d, 200d * 0.03d);
+
+        timer.reset();
+
+        Assert.assertEquals(timer.getSampleCount(), 0);
+        Assert.assertTrue(Double.isNaN(timer.getMin()));
+        Assert.assertTrue(Double.isNaN(timer.get99ThPercentile()));
+    }
+
+    @Test
+    public void testSnapshot() {
+        Timer timer = new Timer(100);
+        Random random = new Random(1234);
+        for (int i = 0; i < 250; i++) {
+            timer.sample(random.nextInt(1000));
+        }
+
+        TimerSnapshot snapshot = timer.getSnapshot();
+        Assert.assertEquals(snapshot.getCount(), 100);
+        Assert.assertEquals(snapshot.getMin(), timer.stats.getMin(), 0d);
+        Assert.assertEquals(snapshot.getMax(), timer.stats.getMax(), 0d);
+        Assert.assertEquals(snapshot.getMean(), timer.stats.getMean(), 0.0001d);
+        Assert.assertEquals(snapshot.getVariance(), timer.stats.getVariance(), 0.0001d);
+        Assert.assertEquals(snapshot.get50ThPercentile(), timer.stats.getPercentile(50), 0d);
+        Assert.assertEquals(snapshot.get75ThPercentile(), timer.stats.getPercentile(75), 0d);
+        Assert.assertEquals(snapshot.get99ThPercentile(), timer.stats.getPercentile(99), 0d);
+
+        timer.sample(1_000_000);
+        Assert.assertSame(timer.getSnapshot(), snapshot);
+        Assert.assertEquals(timer.getMax(), snapshot.getMax(), 0d);
+
+        timer.setSnapshotStalenessMillis(0);
+        Assert.assertEquals(timer.getMax(), 1_000_000d, 0d);
+    }
+
     // Testing timing, always a flaky thing to do, but this is a sanity check
     @Test
     public void testStartStop() throws InterruptedException {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Jive Software, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.jivesoftware.os.mlogger.core;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author jonathan
+ */
+public class WindowedHistogramTest {
+
+    @Test
+    public void testWindowExpiry() {
+        ManualClock now = new ManualClock(1_000_000);
+        WindowedHistogram histogram = new WindowedHistogram(now, 60_000, 6,
+            LogLinearHistogram.DEFAULT_PRECISION_BITS, LogLinearHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE);
+
+        histogram.record(1000);
+        now.advance(30_000, TimeUnit.MILLISECONDS);
+        histogram.record(10);
+        histogram.record(20);
+
+        TimerSnapshot snapshot = histogram.snapshot(now.currentTimeMillis());
+        Assert.assertEquals(snapshot.getCount(), 3);
+        Assert.assertEquals(snapshot.getMax(), 1000d, 0d);
+
+        // first sample's slice falls out of the window
+        now.advance(35_000, TimeUnit.MILLISECONDS);
+        snapshot = histogram.snapshot(now.currentTimeMillis());
+        Assert.assertEquals(snapshot.getCount(), 2);
+        Assert.assertEquals(snapshot.getMin(), 10d, 0d);
+        Assert.assertEquals(snapshot.getMax(), 20d, 0d);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 20d, 0d);
+
+        // recording into a recycled slice clears what it held
+        now.advance(60_000, TimeUnit.MILLISECONDS);
+        histogram.record(5);
+        Assert.assertEquals(histogram.getCount(), 1);
+        Assert.assertEquals(histogram.snapshot(now.currentTimeMillis()).getMean(), 5d, 0d);
+
+        now.advance(60_000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertTrue(Double.isNaN(histogram.snapshot(now.currentTimeMillis()).getMean()));
+    }
+
+    @Test
+    public void testTimerMode() {
+        CountersAndTimers countersAndTimers = CountersAndTimers.getOrCreate("fooWindowedHistogramTest");
+        countersAndTimers.setTimerMode(TimerMode.TIME_WINDOW);
+        countersAndTimers.setTimeWindow(10_000, 5);
+
+        Timer timer = countersAndTimers.timer("timer", 5000);
+        Assert.assertTrue(timer.histogram instanceof WindowedHistogram);
+        Assert.assertEquals(((WindowedHistogram) timer.histogram).getWindowMillis(), 10_000);
+
+        Timer tenantTimer = countersAndTimers.getTenantMetric("tenant1").timer("timer", 5000);
+        Assert.assertTrue(tenantTimer.histogram instanceof WindowedHistogram);
+    }
+}